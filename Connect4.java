@@ -8,9 +8,30 @@ package core;
  */
 public class Connect4 {
 
-    private static char[][] board = new char[6][7];
-    private static int cols = 7;
-    private static int rows = 6;
+    // game used by the static helpers that older callers still rely on
+    private static final Connect4 shared = new Connect4();
+    private static final int cols = 7;
+    private static final int rows = 6;
+
+    private Connect4Position board;
+    // cell of the last piece played in this game
+    private int lastRow = -1;
+    private int lastCol = -1;
+
+    /**
+     * Creates a new game with an empty board
+     */
+    public Connect4(){
+        board = new Connect4Position();
+    }
+
+    /**
+     * Creates a game starting from a board in the older 2D char representation
+     * @param c board with row 0 being the top, empty cells can be a space or 0
+     */
+    public Connect4(char[][] c){
+        board = Connect4Position.fromArray(c);
+    }
 
     /**
      *
@@ -28,77 +49,196 @@ public class Connect4 {
         return rows;
     }
 
+    /**
+     * Clears this game's board so a new game can be played
+     */
+    public void clear(){
+        board = new Connect4Position();
+        lastRow = -1;
+        lastCol = -1;
+    }
 
     /**
-     * Resets the board to all empty spaces
-     * This method is for if a play again structure is implemented
+     * Replaces this game's board with one converted from the older 2D char representation
+     * @param c board with row 0 being the top, empty cells can be a space or 0
      */
-    public static void reset(){
-        board = new char[6][7];
+    public void load(char[][] c){
+        board = Connect4Position.fromArray(c);
+        lastRow = -1;
+        lastCol = -1;
     }
 
-    public static void setBoard(char[][] c){
-        board = c;
+    /**
+     *
+     * @return the bitboard position that backs this game
+     */
+    public Connect4Position getPosition(){
+        return board;
+    }
+
+    /**
+     *
+     * @return the board in the older 2D char representation, empty cells are spaces
+     */
+    public char[][] toArray(){
+        return board.toArray();
     }
 
     /**
-     * Check if there is a connect4. This is done by checking the
-     * horizontal, vertical, positive sloped diagonal, and negative sloped diagonal.
+     *
+     * @return True if every cell on the board has been played
+     */
+    public boolean isFull(){
+        return board.isFull();
+    }
+
+    /**
+     * Check if there is a connect4. This is done by shifting the player's bitboard in the
+     * horizontal, vertical, positive sloped diagonal, and negative sloped diagonal directions.
      * @param s String identifier of a player "X" or "O"
      * @return True if a connect4 is found, False if not
      */
-    public static boolean fourInARow(char s){
-        for(int i = rows-1; i >=0; i--){
-            for(int j = cols-1; j>=0; j--){
-                if(board[i][j]== s){
-                    boolean h = (horizontal(i,j,s)>=4 || vertical(i,j,s)>=4 || negDiag(i,j,s)>=4 || posDiag(i,j,s)>=4);
-                    if(h){
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
-
+    public boolean hasWon(char s){
+        return board.fourInARow(s);
     }
 
     /**
-     * Places the piece by starting at the bottom of the board. If the bottom of the column is open, then place the
-     * piece, otherwise move up one row and try again. If the piece cannot be played then return -1.
-     * @param col Column number the piece wants to be placed in
+     * Places the piece on top of the column. If the piece cannot be played then return -1.
+     * @param col Column number the piece wants to be placed in, starting at 1
      * @param piece Identifier of the player "X" or "O"
      * @return returns the row if the move can be played, or -1 if the move cannot be made
      */
-    public static int place(int col, char piece){
+    public int play(int col, char piece){
         if(col < 1 || col > cols){
             return -1;
         }
-        for(int i = rows-1; i >=0; i--){
-            if(board[i][col-1]==0){
-                board[i][col-1] = piece;
-                return i;
-            }
+        int row = board.place(col-1, piece);
+        if(row != -1){
+            lastRow = row;
+            lastCol = col-1;
         }
-        return -1;
+        return row;
+    }
+
+    /**
+     * Places the piece and then checks only the four lines through the cell it landed in, so the cost of the check
+     * is the same no matter how full the board is. The row the piece landed in is available from {@link #getLastRow()}
+     * @param col Column number the piece wants to be placed in, starting at 1
+     * @param piece Identifier of the player "X" or "O"
+     * @return PLAYER1_WIN or PLAYER2_WIN if the move made a connect4, DRAW if the board is now full, CONT if the game
+     * goes on, or -1 if the move cannot be made
+     */
+    public int placeAndCheck(int col, char piece){
+        int row = play(col, piece);
+        if(row == -1){
+            return -1;
+        }
+        if(board.connectsFour(row, col-1)){
+            return piece == Connect4Constants.PLAYER1_CHAR ? Connect4Constants.PLAYER1_WIN : Connect4Constants.PLAYER2_WIN;
+        }
+        if(board.isFull()){
+            return Connect4Constants.DRAW;
+        }
+        return Connect4Constants.CONT;
+    }
+
+    /**
+     *
+     * @return row of the last piece played, or -1 if nothing has been played
+     */
+    public int getLastRow(){
+        return lastRow;
+    }
+
+    /**
+     *
+     * @return column of the last piece played starting at 0, or -1 if nothing has been played
+     */
+    public int getLastCol(){
+        return lastCol;
+    }
+
+    /**
+     * Resets the shared board to all empty spaces
+     * @deprecated the static board is shared by every caller, create a Connect4 and use {@link #clear()}
+     */
+    @Deprecated
+    public static void reset(){
+        shared.clear();
+    }
+
+    /**
+     * Replaces the shared board with one converted from the older 2D char representation
+     * @param c board with row 0 being the top, empty cells can be a space or 0
+     * @deprecated the static board is shared by every caller, create a Connect4 and use {@link #load(char[][])}
+     */
+    @Deprecated
+    public static void setBoard(char[][] c){
+        shared.load(c);
+    }
+
+    /**
+     * Check if there is a connect4 on the shared board.
+     * @param s String identifier of a player "X" or "O"
+     * @return True if a connect4 is found, False if not
+     * @deprecated the static board is shared by every caller, create a Connect4 and use {@link #hasWon(char)}
+     */
+    @Deprecated
+    public static boolean fourInARow(char s){
+        return shared.hasWon(s);
+    }
+
+    /**
+     * Places the piece on the shared board.
+     * @param col Column number the piece wants to be placed in, starting at 1
+     * @param piece Identifier of the player "X" or "O"
+     * @return returns the row if the move can be played, or -1 if the move cannot be made
+     * @deprecated the static board is shared by every caller, create a Connect4 and use {@link #play(int, char)}
+     */
+    @Deprecated
+    public static int place(int col, char piece){
+        return shared.play(col, piece);
+    }
+
+    /**
+     *
+     * @return the game used by the deprecated static helpers
+     */
+    static Connect4 shared(){
+        return shared;
+    }
+
+    /**
+     * Same as {@link #horizontal(Connect4Position, int, int, char)} on the shared board
+     * @param r Row number of last played piece
+     * @param c Column number of last played piece
+     * @param s String identifier of a player "X" or "O"
+     * @return number of consecutive pieces
+     * @deprecated the static board is shared by every caller, pass the board in instead
+     */
+    @Deprecated
+    public static int horizontal(int r, int c, char s){
+        return horizontal(shared.board, r, c, s);
     }
 
     /**
      * Checks horizontally for a connect 4 by moving up and down the column and counting consecutive pieces of the
      * same type. Stops counting if it goes off the board or if the other piece is encountered.
+     * @param board board to count on
      * @param r Row number of last played piece
      * @param c Column number of last played piece
      * @param s String identifier of a player "X" or "O"
      * @return True if found, false otherwise
      */
-    public static int horizontal(int r, int c, char s){
+    public static int horizontal(Connect4Position board, int r, int c, char s){
         int consec = 0;
-        char x = board[r][c];
+        char x = board.get(r, c);
         if(x != 0 && x == s){
             consec++;
         }
         int i = 1;
         while(c+i < getCols()){
-            x = board[r][c+i];
+            x = board.get(r, c+i);
             if(x == 0 || x != s){
                 i=1;
                 break;
@@ -110,7 +250,7 @@ public class Connect4 {
         }
         i=1;
         while(c-i >= 0){
-            x = board[r][c-i];
+            x = board.get(r, c-i);
             if(x==0 || x != s){
                 break;
             }
@@ -122,23 +262,37 @@ public class Connect4 {
         return consec;
     }
 
+    /**
+     * Same as {@link #vertical(Connect4Position, int, int, char)} on the shared board
+     * @param r Row number of last played piece
+     * @param c Column number of last played piece
+     * @param s String identifier of a player "X" or "O"
+     * @return number of consecutive pieces
+     * @deprecated the static board is shared by every caller, pass the board in instead
+     */
+    @Deprecated
+    public static int vertical(int r, int c, char s){
+        return vertical(shared.board, r, c, s);
+    }
+
     /**
      *Checks for a core.Connect4 in the vertical direction by going right and left and incrementing the consecutive pieces.
      * Stops counting if it goes off the board or if the other piece is encountered.
+     * @param board board to count on
      * @param r Row number of last played piece
      * @param c Column number of last played piece
      * @param s String identifier of a player "X" or "O"
      * @return True if found, false otherwise
      */
-    public static int vertical(int r, int c, char s){
+    public static int vertical(Connect4Position board, int r, int c, char s){
         int consec = 0;
-        char x = board[r][c];
+        char x = board.get(r, c);
         if(x != 0 && x == s){
             consec++;
         }
         int i = 1;
         while(r+i < getRows()){
-            x = board[r+i][c];
+            x = board.get(r+i, c);
             if(x == 0 || x != s){
                 break;
             }
@@ -149,7 +303,7 @@ public class Connect4 {
         }
         i=1;
         while(r-i >= 0){
-            x = board[r-i][c];
+            x = board.get(r-i, c);
             if(x==0 || x != s){
                 break;
             }
@@ -161,23 +315,37 @@ public class Connect4 {
         return consec;
     }
 
+    /**
+     * Same as {@link #posDiag(Connect4Position, int, int, char)} on the shared board
+     * @param r Row number of last played piece
+     * @param c Column number of last played piece
+     * @param s String identifier of a player "X" or "O"
+     * @return number of consecutive pieces
+     * @deprecated the static board is shared by every caller, pass the board in instead
+     */
+    @Deprecated
+    public static int posDiag(int r, int c, char s){
+        return posDiag(shared.board, r, c, s);
+    }
+
     /**
      * Checks for a connect4 by moving up and to the right as well as down and to the left.
      * Stops counting if it goes off the board or if the other piece is encountered.
+     * @param board board to count on
      * @param r Row number of last played piece
      * @param c Column number of last played piece
      * @param s String identifier of a player "X" or "O"
      * @return True if found, false otherwise
      */
-    public static int posDiag(int r, int c, char s){
+    public static int posDiag(Connect4Position board, int r, int c, char s){
         int consec = 0;
-        char x = board[r][c];
+        char x = board.get(r, c);
         if(x != 0 && x == s){
             consec++;
         }
         int i = 1;
         while(r+i < getRows() && c-i >= 0){
-            x = board[r+i][c-i];
+            x = board.get(r+i, c-i);
             if(x == 0 || x != s){
                 break;
             }
@@ -188,7 +356,7 @@ public class Connect4 {
         }
         i=1;
         while(r-i >= 0 && c+i < getCols()){
-            x = board[r-i][c+i];
+            x = board.get(r-i, c+i);
             if(x == 0 || x != s){
                 break;
             }
@@ -200,23 +368,37 @@ public class Connect4 {
         return consec;
     }
 
+    /**
+     * Same as {@link #negDiag(Connect4Position, int, int, char)} on the shared board
+     * @param r Row number of last played piece
+     * @param c Column number of last played piece
+     * @param s String identifier of a player "X" or "O"
+     * @return number of consecutive pieces
+     * @deprecated the static board is shared by every caller, pass the board in instead
+     */
+    @Deprecated
+    public static int negDiag(int r, int c, char s){
+        return negDiag(shared.board, r, c, s);
+    }
+
     /**
      * Checks for a connect4 by moving up and to the left and down and to the right.
      * Stops counting if it goes off the board or if the other piece is encountered.
+     * @param board board to count on
      * @param r Row number of last played piece
      * @param c Column number of last played piece
      * @param s String identifier of a player "X" or "O"
      * @return True if found, false otherwise
      */
-    public static int negDiag(int r, int c, char s){
+    public static int negDiag(Connect4Position board, int r, int c, char s){
         int consec = 0;
-        char x = board[r][c];
+        char x = board.get(r, c);
         if(x != 0 && x == s){
             consec++;
         }
         int i = 1;
         while(r+i < getRows() && c+i < getCols()){
-            x = board[r+i][c+i];
+            x = board.get(r+i, c+i);
             if(x == 0 || x != s){
                 break;
             }
@@ -227,7 +409,7 @@ public class Connect4 {
         }
         i=1;
         while(r-i >= 0 && c-i >= 0){
-            x = board[r-i][c-i];
+            x = board.get(r-i, c-i);
             if(x == 0 || x != s){
                 break;
             }
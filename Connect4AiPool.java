@@ -0,0 +1,509 @@
+package core;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Picks the moves of every computer opponent the server hosts, with a fixed number of search threads shared by all
+ * of their games. A game owns nothing but its board: it asks for a move with {@link #move(Connect4Position, char)}
+ * and is told the column when a thread has picked it, so thousands of games need only a handful of threads and
+ * transposition tables.
+ * <p>
+ * The time a move takes is the time it waits for a thread plus the time it is searched. The budget only limits the
+ * search: it ends at the move's deadline, one budget after the move was asked for, so time spent waiting comes out of
+ * the search, and a move whose budget ran out while it waited still gets a one move search. Moves are picked in the
+ * order they were asked for. To keep the wait short as well, a search is also cut to the thread's share of one budget
+ * among the moves waiting behind it, so the threads work through whatever is queued in about one budget; a move
+ * normally takes no more than one budget and, as long as each of those shares is more than a millisecond, no more
+ * than about two. A game only ever has one move waiting.
+ * <p>
+ * Games are admitted with {@link #tryStartGame()}. A game is turned away when the pool already has as many games as
+ * it allows, or when it is saturated: more moves are waiting than there are threads, so the threads could not start
+ * on all of them within one full length search, or every thread is busy and moves have recently spent more than half
+ * their budget waiting for one.
+ * <p>
+ * A thread with no move to pick ponders instead, like {@link Connect4ComputerPlayer} does: it takes a position the
+ * pool just moved in, the newest first, and searches its answer to each reply the opponent could make with the same
+ * budget as a normal move. When that reply is played the answer is handed back straight away without a search. A
+ * move that is asked for stops every pondering thread at once, so pondering only ever uses time no move was waiting
+ * for, and a search that was stopped is thrown away rather than kept as an answer.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4AiPool implements Connect4AiPoolMBean, Connect4Constants {
+
+    /** Time allowed for each move in milliseconds unless told otherwise */
+    public static final long DEFAULT_MOVE_MILLIS = 100;
+    /** Most games at once unless told otherwise */
+    public static final int DEFAULT_MAX_GAMES = 10000;
+    // weight of the newest wait in the average wait, as a shift
+    private static final int WAIT_SHIFT = 4;
+    // positions waiting to be pondered on for each thread, older ones are dropped first
+    private static final int PONDER_PER_WORKER = 16;
+    // most answers kept from pondering, older ones are dropped first
+    private static final int MAX_ANSWERS = 4096;
+
+    private final long moveNanos;
+    private final int maxGames;
+    private final Thread[] workers;
+    private final Connect4Search[] searches;
+    // true while a thread is pondering, so a move that is asked for knows whose search to stop
+    private final boolean[] pondering;
+    // positions the pool moved in, for pondering, the newest first
+    private final BlockingDeque<Connect4Position> ponderQueue;
+    // answers found while pondering by the hash of the position they answer, and the order they were found in
+    private final ConcurrentHashMap<Long, Answer> answers = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Long> answerOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger answerCount = new AtomicInteger();
+    private final LongAdder pondered = new LongAdder();
+    private final LongAdder ponderHits = new LongAdder();
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger games = new AtomicInteger();
+    // threads searching right now
+    private final AtomicInteger busy = new AtomicInteger();
+    private final LongAdder totalGames = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    // time from a move being asked for to it being picked, and the part of it spent waiting for a thread
+    private final Connect4Histogram moveLatency = new Connect4Histogram();
+    private final Connect4Histogram queueWait = new Connect4Histogram();
+    // recent time moves waited for a thread in nanoseconds, averaged with more weight on the newest
+    private final AtomicLong averageWait = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * A move that has been asked for
+     */
+    private static final class Request {
+        private final Connect4Position pos;
+        private final char piece;
+        private final long asked = System.nanoTime();
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        Request(Connect4Position pos, char piece){
+            this.pos = pos;
+            this.piece = piece;
+        }
+    }
+
+    /**
+     * A move found while pondering, with the position it answers so a hash collision is never played
+     */
+    private static final class Answer {
+        private final long mask1;
+        private final long mask2;
+        private final int col;
+
+        Answer(Connect4Position pos, int col){
+            mask1 = pos.getMask(PLAYER1_CHAR);
+            mask2 = pos.getMask(PLAYER2_CHAR);
+            this.col = col;
+        }
+
+        boolean answers(Connect4Position pos){
+            return pos.getMask(PLAYER1_CHAR) == mask1 && pos.getMask(PLAYER2_CHAR) == mask2;
+        }
+    }
+
+    /**
+     * Creates a pool with a thread per processor and the default budget and number of games
+     */
+    public Connect4AiPool(){
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_MOVE_MILLIS, DEFAULT_MAX_GAMES);
+    }
+
+    /**
+     * @param threads number of search threads, each with its own transposition table, at least 1
+     * @param moveMillis time allowed for each move in milliseconds, waiting included, at least 1
+     * @param maxGames most games the pool plays at once, at least 1
+     */
+    public Connect4AiPool(int threads, long moveMillis, int maxGames){
+        if(threads < 1){
+            throw new IllegalArgumentException("there must be at least one thread");
+        }
+        if(moveMillis < 1){
+            throw new IllegalArgumentException("each move needs at least a millisecond");
+        }
+        if(maxGames < 1){
+            throw new IllegalArgumentException("the pool must allow at least one game");
+        }
+        this.moveNanos = moveMillis * 1000000L;
+        this.maxGames = maxGames;
+        workers = new Thread[threads];
+        searches = new Connect4Search[threads];
+        pondering = new boolean[threads];
+        ponderQueue = new LinkedBlockingDeque<>(threads * PONDER_PER_WORKER);
+        for(int i = 0; i < threads; i++){
+            searches[i] = new Connect4Search(1,
+                    new Connect4TranspositionTable(Connect4TranspositionTable.DEFAULT_MB));
+            int id = i;
+            workers[i] = new Thread(() -> work(id), "connect4-ai-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Admits a new game if the pool has room for it. Every admitted game must be ended with {@link #gameEnded()}.
+     * @return true if the game was admitted, false if the pool is full or saturated
+     */
+    public boolean tryStartGame(){
+        if(!running || isSaturated()){
+            rejected.increment();
+            return false;
+        }
+        int n = games.get();
+        while(n < maxGames){
+            if(games.compareAndSet(n, n + 1)){
+                totalGames.increment();
+                return true;
+            }
+            n = games.get();
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Ends a game admitted by {@link #tryStartGame()}
+     */
+    public void gameEnded(){
+        games.decrementAndGet();
+    }
+
+    /**
+     * Asks for a move, returns straight away
+     * @param pos position to move in, it is copied; nobody can have won and the board cannot be full
+     * @param piece Identifier of the player to move "X" or "O"
+     * @return completed with the column to play starting at 0 on one of the pool's threads, or cancelled if the
+     * pool is shut down first
+     */
+    public CompletableFuture<Integer> move(Connect4Position pos, char piece){
+        long key = Connect4TranspositionTable.hash(pos, piece);
+        Answer a = answers.remove(key);
+        if(a != null && a.answers(pos)){
+            ponderHits.increment();
+            moves.increment();
+            moveLatency.record(0);
+            CompletableFuture<Integer> result = CompletableFuture.completedFuture(a.col);
+            ponderAfter(pos, a.col, piece);
+            return result;
+        }
+        Request r = new Request(new Connect4Position(pos), piece);
+        queue.add(r);
+        // added before looking, and a thread starts pondering before it looks at the queue, so one of them sees
+        // the other
+        synchronized(pondering){
+            for(int i = 0; i < pondering.length; i++){
+                if(pondering[i]){
+                    searches[i].stop();
+                }
+            }
+        }
+        if(!running){
+            // shut down while this was being added, so it may never be taken
+            r.result.cancel(false);
+        }
+        return r.result;
+    }
+
+    /**
+     * Stops the threads, moves still waiting are cancelled
+     */
+    public void shutdown(){
+        running = false;
+        for(int i = 0; i < workers.length; i++){
+            searches[i].stop();
+            workers[i].interrupt();
+        }
+        ponderQueue.clear();
+        Request r;
+        while((r = queue.poll()) != null){
+            r.result.cancel(false);
+        }
+    }
+
+    /**
+     * Runs on each of the pool's threads, picking one move after another until the pool is shut down, and pondering
+     * whenever there is no move to pick
+     * @param id number of the thread
+     */
+    private void work(int id){
+        Connect4Search search = searches[id];
+        while(running){
+            Request r = queue.poll();
+            if(r == null){
+                Connect4Position from = ponderQueue.pollFirst();
+                if(from != null){
+                    ponder(id, from);
+                    continue;
+                }
+                try{
+                    r = queue.take();
+                }
+                catch (InterruptedException e){
+                    break;
+                }
+            }
+            busy.incrementAndGet();
+            long started = System.nanoTime();
+            long waited = started - r.asked;
+            queueWait.record(waited);
+            long avg = averageWait.get();
+            // a wait lost to another thread updating at the same time makes no difference to an average
+            averageWait.compareAndSet(avg, avg + ((waited - avg) >> WAIT_SHIFT));
+            // whatever is left of the budget, but no more than this thread's share of one budget among the moves
+            // waiting, so they are all started on within about one budget; a one move search always finishes even
+            // if nothing is left
+            long share = moveNanos * workers.length / (workers.length + queue.size());
+            long left = Math.min(r.asked + moveNanos - started, share) / 1000000L;
+            try{
+                int col = search.searchTimed(r.pos, r.piece, Math.max(1, left));
+                moves.increment();
+                moveLatency.record(System.nanoTime() - r.asked);
+                r.result.complete(col);
+                ponderAfter(r.pos, col, r.piece);
+            }
+            catch (RuntimeException e){
+                r.result.completeExceptionally(e);
+            }
+            finally{
+                busy.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Keeps the position after one of the pool's moves for pondering, unless the move ended the game
+     * @param pos position the move was made in
+     * @param col column of the move
+     * @param piece Identifier of the player that moved "X" or "O"
+     */
+    private void ponderAfter(Connect4Position pos, int col, char piece){
+        Connect4Position after = new Connect4Position(pos);
+        after.place(col, piece);
+        if(after.fourInARow(piece) || after.isFull()){
+            return;
+        }
+        // the oldest position is the likeliest to have been replied to already, so it makes room
+        while(!ponderQueue.offerFirst(after)){
+            ponderQueue.pollLast();
+        }
+    }
+
+    /**
+     * Runs on one of the pool's threads, answering each reply the opponent could make in a position until a move is
+     * asked for
+     * @param id number of the thread
+     * @param from position the opponent is to move in, the pool's player is the one that did not just move
+     */
+    private void ponder(int id, Connect4Position from){
+        Connect4Search search = searches[id];
+        // the pool's piece is whichever was played last, so it has made as many moves as the opponent or one more
+        char mine = Long.bitCount(from.getMask(PLAYER1_CHAR)) > Long.bitCount(from.getMask(PLAYER2_CHAR))
+                ? PLAYER1_CHAR : PLAYER2_CHAR;
+        char opponent = mine == PLAYER1_CHAR ? PLAYER2_CHAR : PLAYER1_CHAR;
+        // the reply the last search expected comes first, then the middle columns
+        long entry = search.getTable().probe(Connect4TranspositionTable.hash(from, opponent));
+        int expected = entry == Connect4TranspositionTable.MISS ? -1 : Connect4TranspositionTable.moveOf(entry);
+        Connect4Position after = new Connect4Position();
+        for(int i = -1; i < COLS && running; i++){
+            int reply = i == -1 ? expected : Connect4Search.ORDER[i];
+            if(reply == -1 || (i != -1 && reply == expected) || !from.canPlay(reply)){
+                continue;
+            }
+            after.set(from);
+            after.place(reply, opponent);
+            if(after.fourInARow(opponent) || after.isFull()
+                    || answers.containsKey(Connect4TranspositionTable.hash(after, mine))){
+                continue;
+            }
+            // cleared before the flag is set, so a stop from a move asked for once the flag is seen is never lost
+            search.clearStop();
+            synchronized(pondering){
+                pondering[id] = true;
+            }
+            try{
+                if(!queue.isEmpty()){
+                    resume(from);
+                    return;
+                }
+                int col = search.iterate(after, mine, ROWS * COLS - after.getMoves(), moveNanos / 1000000L);
+                // a search cut short for a move that was asked for is not as good as a normal move
+                if(search.wasStopped()){
+                    resume(from);
+                    return;
+                }
+                keep(after, mine, col);
+            }
+            catch (RuntimeException e){
+                // pondering only ever saves time, so if it fails the moves are just searched as usual
+                return;
+            }
+            finally{
+                synchronized(pondering){
+                    pondering[id] = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts back a position whose pondering was stopped, so the replies not answered yet are pondered once the pool
+     * is idle again, unless newer positions have filled the queue
+     * @param from position the opponent is to move in
+     */
+    private void resume(Connect4Position from){
+        ponderQueue.offerFirst(from);
+    }
+
+    /**
+     * Keeps an answer found while pondering, dropping the oldest answers once there are too many
+     * @param pos position the answer is for
+     * @param piece Identifier of the player the answer is for "X" or "O"
+     * @param col column to play starting at 0
+     */
+    private void keep(Connect4Position pos, char piece, int col){
+        long key = Connect4TranspositionTable.hash(pos, piece);
+        if(answers.put(key, new Answer(pos, col)) == null){
+            answerOrder.add(key);
+            answerCount.incrementAndGet();
+        }
+        pondered.increment();
+        // answers that were played are still in the order, so it is what is kept short
+        while(answerCount.get() > MAX_ANSWERS){
+            Long old = answerOrder.poll();
+            if(old == null){
+                break;
+            }
+            answerCount.decrementAndGet();
+            answers.remove(old);
+        }
+    }
+
+    /**
+     *
+     * @return time from a move being asked for to it being picked
+     */
+    public Connect4Histogram getMoveLatency(){
+        return moveLatency;
+    }
+
+    /**
+     *
+     * @return time moves spent waiting for a thread
+     */
+    public Connect4Histogram getQueueWait(){
+        return queueWait;
+    }
+
+    @Override
+    public int getThreads(){
+        return workers.length;
+    }
+
+    @Override
+    public int getBusyThreads(){
+        return busy.get();
+    }
+
+    @Override
+    public long getMoveMillis(){
+        return moveNanos / 1000000L;
+    }
+
+    @Override
+    public int getGames(){
+        return games.get();
+    }
+
+    @Override
+    public int getMaxGames(){
+        return maxGames;
+    }
+
+    @Override
+    public long getTotalGames(){
+        return totalGames.sum();
+    }
+
+    @Override
+    public long getRejected(){
+        return rejected.sum();
+    }
+
+    @Override
+    public long getMoves(){
+        return moves.sum();
+    }
+
+    @Override
+    public int getQueued(){
+        return queue.size();
+    }
+
+    @Override
+    public long getAverageWait(){
+        return averageWait.get() / 1000;
+    }
+
+    @Override
+    public long getPondered(){
+        return pondered.sum();
+    }
+
+    @Override
+    public long getPonderHits(){
+        return ponderHits.sum();
+    }
+
+    @Override
+    public boolean isSaturated(){
+        // the average only changes when moves are picked, so it is only believed while every thread is busy
+        return queue.size() > workers.length
+                || (busy.get() == workers.length && averageWait.get() > moveNanos / 2);
+    }
+
+    /**
+     * Registers the pool and its histograms with the platform MBean server
+     * @throws JMException if they cannot be registered, for example because another pool in this JVM already
+     * registered its own
+     */
+    public void register() throws JMException{
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, new ObjectName(Connect4Metrics.DOMAIN + ":type=Connect4AiPool"));
+        server.registerMBean(moveLatency, histogramName("moveLatency"));
+        server.registerMBean(queueWait, histogramName("queueWait"));
+    }
+
+    /**
+     * Removes what {@link #register()} registered
+     */
+    public void unregister(){
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try{
+            server.unregisterMBean(new ObjectName(Connect4Metrics.DOMAIN + ":type=Connect4AiPool"));
+            server.unregisterMBean(histogramName("moveLatency"));
+            server.unregisterMBean(histogramName("queueWait"));
+        }
+        catch (JMException e){
+            // was never registered
+        }
+    }
+
+    private static ObjectName histogramName(String name) throws JMException{
+        return new ObjectName(Connect4Metrics.DOMAIN + ":type=Connect4AiPool,name=" + name);
+    }
+}
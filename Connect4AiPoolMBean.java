@@ -0,0 +1,88 @@
+package core;
+
+/**
+ * What JMX shows of the server's {@link Connect4AiPool}. The move latency and queue wait histograms are registered as
+ * MBeans of their own.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public interface Connect4AiPoolMBean {
+
+    /**
+     *
+     * @return number of search threads
+     */
+    int getThreads();
+
+    /**
+     *
+     * @return number of search threads picking a move right now
+     */
+    int getBusyThreads();
+
+    /**
+     *
+     * @return time allowed for each move in milliseconds, waiting for a thread included
+     */
+    long getMoveMillis();
+
+    /**
+     *
+     * @return number of games against the computer being played
+     */
+    int getGames();
+
+    /**
+     *
+     * @return most games against the computer played at once
+     */
+    int getMaxGames();
+
+    /**
+     *
+     * @return number of games against the computer started since the server started
+     */
+    long getTotalGames();
+
+    /**
+     *
+     * @return number of games turned away because the pool was full or saturated
+     */
+    long getRejected();
+
+    /**
+     *
+     * @return number of moves picked
+     */
+    long getMoves();
+
+    /**
+     *
+     * @return number of moves waiting for a thread
+     */
+    int getQueued();
+
+    /**
+     *
+     * @return recent time moves waited for a thread in microseconds, averaged with more weight on the newest
+     */
+    long getAverageWait();
+
+    /**
+     *
+     * @return number of answers found by threads pondering while no move was waiting
+     */
+    long getPondered();
+
+    /**
+     *
+     * @return number of moves answered straight away from pondering
+     */
+    long getPonderHits();
+
+    /**
+     *
+     * @return true if new games are being turned away because moves wait too long for a thread
+     */
+    boolean isSaturated();
+}
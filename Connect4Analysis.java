@@ -0,0 +1,232 @@
+package core;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Scores every column of a position in the background, for showing hints. The analysis looks one move deeper at a
+ * time and hands the scores of each finished depth to a listener, so the hints get better the longer they are shown.
+ * It stops once every column is decided or nothing deeper is left to search, or when it is told to analyze another
+ * position.
+ * <p>
+ * The transposition table is kept from one position to the next. After a move the positions below it have mostly
+ * been searched already, so the first few depths of the new analysis come straight from the table.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4Analysis implements Connect4Constants {
+
+    /** Size of the transposition table in megabytes unless told otherwise */
+    public static final int DEFAULT_MB = 16;
+
+    private final Connect4Search search;
+    private final Consumer<Scores> listener;
+    // runs the analysis, one position at a time
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "connect4-analysis");
+        t.setDaemon(true);
+        return t;
+    });
+    // counts the positions asked for, an analysis stops as soon as a newer one is asked for
+    private volatile long generation;
+
+    /**
+     * Creates an analysis with a transposition table of the default size
+     * @param listener called on the analysis thread with the scores of each depth as it finishes
+     */
+    public Connect4Analysis(Consumer<Scores> listener){
+        this(DEFAULT_MB, listener);
+    }
+
+    /**
+     * @param tableMegabytes size of the transposition table in megabytes, at least 1
+     * @param listener called on the analysis thread with the scores of each depth as it finishes
+     */
+    public Connect4Analysis(int tableMegabytes, Consumer<Scores> listener){
+        if(listener == null){
+            throw new IllegalArgumentException("listener cannot be null");
+        }
+        search = new Connect4Search(1, new Connect4TranspositionTable(tableMegabytes));
+        this.listener = listener;
+    }
+
+    /**
+     * Starts analyzing a position, stopping the analysis of any position asked for before. Can be called from any
+     * thread.
+     * @param pos position to analyze, it is copied
+     * @param piece Identifier of the player to move "X" or "O"
+     */
+    public void analyze(Connect4Position pos, char piece){
+        long mine = cancel();
+        Connect4Position copy = new Connect4Position(pos);
+        worker.execute(() -> run(mine, copy, piece));
+    }
+
+    /**
+     * Stops the analysis, the listener is not called again until another position is analyzed
+     */
+    public void stop(){
+        cancel();
+    }
+
+    /**
+     * Stops the analysis and forgets every position searched so far, for when a new game is started
+     */
+    public void newGame(){
+        cancel();
+        // queued behind the analysis being stopped, so the table is never cleared while it is in use
+        worker.execute(() -> search.getTable().clear());
+    }
+
+    /**
+     * Stops the analysis for good and lets its thread end
+     */
+    public void shutdown(){
+        cancel();
+        worker.shutdown();
+    }
+
+    /**
+     * Moves on to a new generation and stops the search of the old one
+     * @return the new generation
+     */
+    private long cancel(){
+        long mine;
+        synchronized(this){
+            mine = ++generation;
+        }
+        search.stop();
+        return mine;
+    }
+
+    /**
+     * Runs on the analysis thread, searching one move deeper at a time until the position is decided, there is
+     * nothing deeper to search or a newer position is asked for
+     * @param mine generation of this analysis
+     * @param pos position to analyze
+     * @param piece Identifier of the player to move "X" or "O"
+     */
+    private void run(long mine, Connect4Position pos, char piece){
+        // a stop for an older analysis is cleared first, then one that came after it is caught by the generation
+        search.clearStop();
+        int left = ROWS * COLS - pos.getMoves();
+        if(left == 0 || pos.fourInARow(PLAYER1_CHAR) || pos.fourInARow(PLAYER2_CHAR)){
+            return;
+        }
+        for(int depth = 1; depth <= left && generation == mine; depth++){
+            int[] scores = new int[COLS];
+            if(!search.scoreColumns(pos, piece, depth, scores) || generation != mine){
+                return;
+            }
+            Scores result = new Scores(pos, depth, scores);
+            listener.accept(result);
+            if(result.isDecided()){
+                return;
+            }
+        }
+    }
+
+    /**
+     * Scores of every column of a position, from the point of view of the player to move
+     */
+    public static final class Scores {
+        private final Connect4Position pos;
+        private final int depth;
+        private final int[] scores;
+
+        private Scores(Connect4Position pos, int depth, int[] scores){
+            this.pos = pos;
+            this.depth = depth;
+            this.scores = scores;
+        }
+
+        /**
+         *
+         * @param other a position
+         * @return true if these are the scores of that position
+         */
+        public boolean isFor(Connect4Position other){
+            return other.getMask(PLAYER1_CHAR) == pos.getMask(PLAYER1_CHAR)
+                    && other.getMask(PLAYER2_CHAR) == pos.getMask(PLAYER2_CHAR);
+        }
+
+        /**
+         *
+         * @return number of moves the scores look ahead
+         */
+        public int getDepth(){
+            return depth;
+        }
+
+        /**
+         *
+         * @param col column starting at 0
+         * @return score of playing in the column, see {@link Connect4Search#WIN_SCORE}, or Integer.MIN_VALUE if the
+         * column is full
+         */
+        public int getScore(int col){
+            return scores[col];
+        }
+
+        /**
+         *
+         * @param col column starting at 0
+         * @return true if playing in the column wins or loses by force, or is a draw with the whole game searched
+         */
+        public boolean isExact(int col){
+            int s = scores[col];
+            return s == Integer.MIN_VALUE || Math.abs(s) > Connect4Search.WIN_BOUND
+                    || depth >= ROWS * COLS - pos.getMoves();
+        }
+
+        /**
+         *
+         * @return true if every column is exact, so searching deeper would not change anything
+         */
+        public boolean isDecided(){
+            for(int c = 0; c < COLS; c++){
+                if(!isExact(c)){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Number of moves, counting both players, until a column's game is won or lost
+         * @param col column starting at 0
+         * @return moves including the one in the column, or 0 if the column is not a forced win or loss
+         */
+        public int getMovesToEnd(int col){
+            int s = scores[col];
+            if(s == Integer.MIN_VALUE || Math.abs(s) <= Connect4Search.WIN_BOUND){
+                return 0;
+            }
+            return Connect4Search.WIN_SCORE - Math.abs(s);
+        }
+
+        /**
+         * Describes a column's score for people to read
+         * @param col column starting at 0
+         * @return for example "win in 5", "loss in 8", "draw" or "+12" for a heuristic score, or "" if the column is
+         * full
+         */
+        public String describe(int col){
+            int s = scores[col];
+            if(s == Integer.MIN_VALUE){
+                return "";
+            }
+            if(s > Connect4Search.WIN_BOUND){
+                return "win in " + getMovesToEnd(col);
+            }
+            if(s < -Connect4Search.WIN_BOUND){
+                return "loss in " + getMovesToEnd(col);
+            }
+            if(s == 0 && isExact(col)){
+                return "draw";
+            }
+            return (s > 0 ? "+" : "") + s;
+        }
+    }
+}
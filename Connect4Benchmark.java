@@ -0,0 +1,297 @@
+package core;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Micro benchmarks for the hot paths of the game: placing pieces, checking for a connect 4, the line counters, the
+ * computer player and the messages the server sends. Each benchmark runs over three sets of positions (empty,
+ * mid game and nearly full boards) and reports operations per second and the bytes allocated per operation, so a
+ * change to any of these paths can be compared against a baseline run.
+ * <p>
+ * Every benchmark is warmed up before it is measured so the JIT has compiled it, and its results are summed into a
+ * sink that is printed at the end so the JIT cannot remove the work.
+ * <p>
+ * Usage: java core.Connect4Benchmark [millis per benchmark] [search depth]
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4Benchmark implements Connect4Constants {
+
+    /** Number of positions in each set */
+    static final int CORPUS_SIZE = 256;
+
+    private final long millis;
+    private final int depth;
+    private final com.sun.management.ThreadMXBean threads;
+    // results of every operation, printed at the end so none of the work can be optimized away
+    private long sink;
+
+    // the three sets of positions, with the player to move, a legal column and the last cell played in each
+    private final String[] corpusNames = {"empty", "midgame", "nearfull"};
+    private final Connect4Position[][] positions = new Connect4Position[3][];
+    private final char[][] pieces = new char[3][];
+    private final int[][] columns = new int[3][];
+    private final int[][] lastRows = new int[3][];
+    private final int[][] lastCols = new int[3][];
+
+    /**
+     * An operation being measured. Each one loops over the set itself, so the calls inside its loop only ever see
+     * that one operation and the JIT can inline them, instead of every benchmark sharing one call site that stops
+     * being inlined once a few operations have gone through it.
+     */
+    interface Op {
+        /**
+         * Runs the operation once on every position in a set
+         * @param corpus which set of positions to use
+         * @return the results of the operation added up, so it is not optimized away
+         * @throws IOException if a message cannot be read or written
+         */
+        long pass(int corpus) throws IOException;
+    }
+
+    /**
+     * @param millis time each benchmark is measured for, the warm up takes half as long again
+     * @param depth how far ahead the computer player looks in the makeMove benchmark
+     */
+    public Connect4Benchmark(long millis, int depth){
+        this.millis = millis;
+        this.depth = depth;
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Random random = new Random(0x4334);
+        buildCorpus(0, random, 0, 0);
+        buildCorpus(1, random, 14, 22);
+        buildCorpus(2, random, 34, 40);
+    }
+
+    /**
+     * Fills a set with positions from random games that nobody has won yet
+     * @param corpus index of the set
+     * @param random source of the random moves
+     * @param minMoves fewest pieces on the board
+     * @param maxMoves most pieces on the board
+     */
+    private void buildCorpus(int corpus, Random random, int minMoves, int maxMoves){
+        positions[corpus] = new Connect4Position[CORPUS_SIZE];
+        pieces[corpus] = new char[CORPUS_SIZE];
+        columns[corpus] = new int[CORPUS_SIZE];
+        lastRows[corpus] = new int[CORPUS_SIZE];
+        lastCols[corpus] = new int[CORPUS_SIZE];
+        int n = 0;
+        while(n < CORPUS_SIZE){
+            int target = minMoves + random.nextInt(maxMoves - minMoves + 1);
+            Connect4Position pos = new Connect4Position();
+            char piece = PLAYER1_CHAR;
+            int row = ROWS - 1;
+            int col = COLS / 2;
+            boolean over = false;
+            while(pos.getMoves() < target && !over){
+                int c = random.nextInt(COLS);
+                if(!pos.canPlay(c)){
+                    continue;
+                }
+                row = pos.place(c, piece);
+                col = c;
+                over = pos.connectsFour(row, c);
+                piece = piece == PLAYER1_CHAR ? PLAYER2_CHAR : PLAYER1_CHAR;
+            }
+            if(over){
+                continue;
+            }
+            int move = random.nextInt(COLS);
+            while(!pos.canPlay(move)){
+                move = (move + 1) % COLS;
+            }
+            positions[corpus][n] = pos;
+            pieces[corpus][n] = piece;
+            columns[corpus][n] = move;
+            lastRows[corpus][n] = row;
+            lastCols[corpus][n] = col;
+            n++;
+        }
+    }
+
+    /**
+     * Runs every benchmark and prints a table of the results
+     * @throws IOException if a message cannot be read or written
+     */
+    public void runAll() throws IOException{
+        System.out.printf("%-14s %-9s %14s %10s %10s%n", "benchmark", "corpus", "ops/s", "B/op", "MB/s");
+
+        Connect4 game = new Connect4();
+        run("place", k -> {
+            long sum = 0;
+            for(int i = 0; i < CORPUS_SIZE; i++){
+                game.getPosition().set(positions[k][i]);
+                sum += game.play(columns[k][i] + 1, pieces[k][i]);
+            }
+            return sum;
+        });
+        run("placeAndCheck", k -> {
+            long sum = 0;
+            for(int i = 0; i < CORPUS_SIZE; i++){
+                game.getPosition().set(positions[k][i]);
+                sum += game.placeAndCheck(columns[k][i] + 1, pieces[k][i]);
+            }
+            return sum;
+        });
+        run("fourInARow", k -> {
+            long sum = 0;
+            for(int i = 0; i < CORPUS_SIZE; i++){
+                Connect4Position pos = positions[k][i];
+                sum += (pos.fourInARow(PLAYER1_CHAR) ? 1 : 0) + (pos.fourInARow(PLAYER2_CHAR) ? 2 : 0);
+            }
+            return sum;
+        });
+        run("lineCounters", k -> {
+            long sum = 0;
+            for(int i = 0; i < CORPUS_SIZE; i++){
+                Connect4Position pos = positions[k][i];
+                int r = lastRows[k][i];
+                int c = lastCols[k][i];
+                char s = pieces[k][i] == PLAYER1_CHAR ? PLAYER2_CHAR : PLAYER1_CHAR;
+                sum += Connect4.horizontal(pos, r, c, s) + Connect4.vertical(pos, r, c, s)
+                        + Connect4.posDiag(pos, r, c, s) + Connect4.negDiag(pos, r, c, s);
+            }
+            return sum;
+        });
+
+        Connect4ComputerPlayer player = new Connect4ComputerPlayer(depth, 1);
+        run("scanBoard", k -> {
+            long sum = 0;
+            for(int i = 0; i < CORPUS_SIZE; i++){
+                sum += player.scanBoard(positions[k][i], PLAYER2_CHAR);
+            }
+            return sum;
+        });
+        Connect4 searched = new Connect4();
+        run("makeMove", k -> {
+            long sum = 0;
+            for(int i = 0; i < CORPUS_SIZE; i++){
+                // a fresh table every time so each move is searched from scratch
+                player.newGame();
+                searched.getPosition().set(positions[k][i]);
+                player.makeMove(searched);
+                sum += player.getCol();
+            }
+            return sum;
+        });
+
+        // the status and move the server sends after every turn, and the move it reads back, in both formats; each
+        // message has a slot of its own so the JIT cannot drop a message that the next one would overwrite
+        ByteBuffer results = ByteBuffer.allocate(CORPUS_SIZE * Connect4Protocol.MAX_MESSAGE);
+        ByteBuffer[] moves = moves(false);
+        ByteBuffer[] framedMoves = moves(true);
+        run("encode", k -> {
+            long sum = 0;
+            for(int i = 0; i < CORPUS_SIZE; i++){
+                results.clear().position(i * Connect4Protocol.MAX_MESSAGE);
+                Connect4Protocol.putResult(results, false, PLAYER2, PLAYER1, CONT, lastRows[k][i], lastCols[k][i]);
+                sum += results.position();
+            }
+            return sum;
+        });
+        run("decode", k -> {
+            long sum = 0;
+            for(int i = 0; i < CORPUS_SIZE; i++){
+                moves[k].limit((i + 1) * Connect4Protocol.MAX_MESSAGE).position(i * Connect4Protocol.MAX_MESSAGE);
+                sum += Connect4Protocol.takeMove(moves[k], false);
+            }
+            return sum;
+        });
+        run("encodeFramed", k -> {
+            long sum = 0;
+            for(int i = 0; i < CORPUS_SIZE; i++){
+                results.clear().position(i * Connect4Protocol.MAX_MESSAGE);
+                Connect4Protocol.putResult(results, true, PLAYER2, PLAYER1, CONT, lastRows[k][i], lastCols[k][i]);
+                sum += results.position();
+            }
+            return sum;
+        });
+        run("decodeFramed", k -> {
+            long sum = 0;
+            for(int i = 0; i < CORPUS_SIZE; i++){
+                framedMoves[k].limit((i + 1) * Connect4Protocol.MAX_MESSAGE)
+                        .position(i * Connect4Protocol.MAX_MESSAGE);
+                sum += Connect4Protocol.takeMove(framedMoves[k], true);
+            }
+            return sum;
+        });
+        System.out.println("sink " + sink);
+    }
+
+    /**
+     * Writes the move a client sends for every position, each in a slot of {@link Connect4Protocol#MAX_MESSAGE} bytes
+     * @param framed true for the framed format, false for an older client
+     * @return a buffer of moves for each set of positions
+     */
+    private ByteBuffer[] moves(boolean framed){
+        ByteBuffer[] moves = new ByteBuffer[positions.length];
+        for(int k = 0; k < positions.length; k++){
+            moves[k] = ByteBuffer.allocate(CORPUS_SIZE * Connect4Protocol.MAX_MESSAGE);
+            for(int i = 0; i < CORPUS_SIZE; i++){
+                moves[k].position(i * Connect4Protocol.MAX_MESSAGE);
+                if(framed){
+                    Connect4Protocol.putMove(moves[k], lastCols[k][i]);
+                }
+                else{
+                    moves[k].putInt(lastRows[k][i]).putInt(lastCols[k][i]);
+                }
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Warms up and then measures an operation on every set of positions
+     * @param name name to print for the benchmark
+     * @param op the operation
+     * @throws IOException if a message cannot be read or written
+     */
+    private void run(String name, Op op) throws IOException{
+        long thread = Thread.currentThread().getId();
+        for(int k = 0; k < positions.length; k++){
+            measure(op, k, millis / 2);
+            long bytesBefore = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            long ops = measure(op, k, millis);
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+            double seconds = elapsed / 1e9;
+            System.out.printf("%-14s %-9s %14.0f %10.1f %10.1f%n", name, corpusNames[k], ops / seconds,
+                    (double) allocated / ops, allocated / seconds / (1024 * 1024));
+        }
+    }
+
+    /**
+     * Runs an operation over a set of positions until the time is up, checking the clock once per pass over the set
+     * @param op the operation
+     * @param corpus which set of positions to use
+     * @param millis how long to run for
+     * @return number of operations run
+     * @throws IOException if a message cannot be read or written
+     */
+    private long measure(Op op, int corpus, long millis) throws IOException{
+        long end = System.nanoTime() + millis * 1000000;
+        long ops = 0;
+        do{
+            sink += op.pass(corpus);
+            ops += CORPUS_SIZE;
+        }while(System.nanoTime() < end);
+        return ops;
+    }
+
+    /**
+     * Runs the benchmarks from the command line
+     * @param args optionally the milliseconds to measure each benchmark for (default 1000) and the search depth for
+     *             makeMove (default 6)
+     * @throws IOException if a message cannot be read or written
+     */
+    public static void main(String[] args) throws IOException{
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        new Connect4Benchmark(millis, depth).runAll();
+    }
+}
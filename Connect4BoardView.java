@@ -0,0 +1,351 @@
+package core;
+
+import javafx.animation.AnimationTimer;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+/**
+ * Draws a connect4 board on a single canvas, for {@link Connect4Client} and the GUI. The board keeps the piece in
+ * each of its 42 cells and which cells have changed, and only those cells are drawn again, so the work done per frame
+ * and the memory used stay the same however many games are played. Played pieces fall into place, animated by one
+ * {@link AnimationTimer} that only runs while something is falling or needs drawing. Pieces fall one after the other
+ * in the order they were played.
+ * <p>
+ * A hint can be shown for each column, written in the hole the column's next piece would land in.
+ * <p>
+ * The board can be resized by its parent, and always keeps its cells square and centered.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4BoardView extends Canvas implements Connect4Constants {
+
+    /** How fast a piece speeds up as it falls, in cells per second squared */
+    public static final double GRAVITY = 60;
+
+    private static final int CELLS = ROWS * COLS;
+    private static final long ALL_CELLS = (1L << CELLS) - 1;
+    // share of a cell left blue around the hole
+    private static final double MARGIN = 0.08;
+
+    // the piece in each cell, row * COLS + col with row 0 at the top
+    private final char[] cells = new char[CELLS];
+    // one bit per cell that has to be drawn again
+    private long dirty;
+    // the whole canvas has to be drawn again, after a resize
+    private boolean full = true;
+    // pieces waiting to fall, oldest first; only the first one is falling
+    private final int[] dropCell = new int[CELLS];
+    private final char[] dropPiece = new char[CELLS];
+    private int drops;
+    // when the falling piece started to fall, 0 if it has not started yet
+    private long dropStart;
+    // size of a cell and where the board starts, in pixels
+    private double cell;
+    private double left;
+    private double top;
+    private final double prefCell;
+    private boolean running;
+    // hint for each column and the color it is written in, null for no hint
+    private final String[] hints = new String[COLS];
+    private final Color[] hintColors = new Color[COLS];
+    private final AnimationTimer timer = new AnimationTimer(){
+        @Override
+        public void handle(long now){
+            frame(now);
+        }
+    };
+
+    /**
+     * Makes an empty board
+     * @param cellSize size of each cell in pixels until the board is resized
+     */
+    public Connect4BoardView(double cellSize){
+        super(COLS * cellSize, ROWS * cellSize);
+        if(cellSize <= 0){
+            throw new IllegalArgumentException("cell size must be positive");
+        }
+        prefCell = cellSize;
+        cell = cellSize;
+        clear();
+    }
+
+    /**
+     * Empties the board for a new game, dropping any pieces still falling and any hints
+     */
+    public void clear(){
+        for(int i = 0; i < CELLS; i++){
+            cells[i] = ' ';
+        }
+        for(int c = 0; c < COLS; c++){
+            hints[c] = null;
+        }
+        drops = 0;
+        dirty = ALL_CELLS;
+        schedule();
+    }
+
+    /**
+     * Shows a piece in a cell straight away
+     * @param row row starting at 0 for the top row
+     * @param col column starting at 0
+     * @param piece PLAYER1_CHAR, PLAYER2_CHAR or ' ' for an empty cell
+     */
+    public void setPiece(int row, int col, char piece){
+        int i = index(row, col);
+        cells[i] = piece;
+        dirty |= 1L << i | above(i);
+        schedule();
+    }
+
+    /**
+     * Shows a hint for a column, in the hole its next piece would land in
+     * @param col column starting at 0
+     * @param text a few characters, or null to show no hint
+     * @param color color the hint is written in
+     */
+    public void setHint(int col, String text, Color color){
+        if(col < 0 || col >= COLS){
+            throw new IllegalArgumentException("no column " + col);
+        }
+        hints[col] = text;
+        hintColors[col] = color;
+        int row = landingRow(col);
+        if(row != -1){
+            dirty |= 1L << index(row, col);
+            schedule();
+        }
+    }
+
+    /**
+     * Stops showing every hint
+     */
+    public void clearHints(){
+        for(int c = 0; c < COLS; c++){
+            if(hints[c] != null){
+                setHint(c, null, null);
+            }
+        }
+    }
+
+    /**
+     * Drops a piece into a cell, once every piece dropped before it has landed
+     * @param row row the piece lands in, starting at 0 for the top row
+     * @param col column starting at 0
+     * @param piece PLAYER1_CHAR or PLAYER2_CHAR
+     */
+    public void drop(int row, int col, char piece){
+        int i = index(row, col);
+        if(drops == CELLS){
+            // more drops than cells means a new game was started without clearing, so just show it
+            setPiece(row, col, piece);
+            return;
+        }
+        if(drops == 0){
+            dropStart = 0;
+        }
+        dropCell[drops] = i;
+        dropPiece[drops] = piece;
+        drops++;
+        schedule();
+    }
+
+    @Override
+    public boolean isResizable(){
+        return true;
+    }
+
+    @Override
+    public double prefWidth(double height){
+        return COLS * prefCell;
+    }
+
+    @Override
+    public double prefHeight(double width){
+        return ROWS * prefCell;
+    }
+
+    @Override
+    public double minWidth(double height){
+        return COLS * 4;
+    }
+
+    @Override
+    public double minHeight(double width){
+        return ROWS * 4;
+    }
+
+    @Override
+    public double maxWidth(double height){
+        return Double.MAX_VALUE;
+    }
+
+    @Override
+    public double maxHeight(double width){
+        return Double.MAX_VALUE;
+    }
+
+    /**
+     * Changes the size of the canvas, called by its parent, and draws the whole board again at the new size
+     * @param width new width in pixels
+     * @param height new height in pixels
+     */
+    @Override
+    public void resize(double width, double height){
+        setWidth(width);
+        setHeight(height);
+        cell = Math.max(1, Math.min(width / COLS, height / ROWS));
+        left = (width - COLS * cell) / 2;
+        top = (height - ROWS * cell) / 2;
+        full = true;
+        schedule();
+    }
+
+    private static int index(int row, int col){
+        if(row < 0 || row >= ROWS || col < 0 || col >= COLS){
+            throw new IllegalArgumentException("no cell at row " + row + ", column " + col);
+        }
+        return row * COLS + col;
+    }
+
+    /**
+     *
+     * @param i index of a cell
+     * @return bit of the cell above it, or 0 for the top row
+     */
+    private static long above(int i){
+        return i >= COLS ? 1L << (i - COLS) : 0;
+    }
+
+    /**
+     *
+     * @param col column starting at 0
+     * @return lowest empty row of the column, or -1 if it is full
+     */
+    private int landingRow(int col){
+        for(int row = ROWS - 1; row >= 0; row--){
+            if(cells[row * COLS + col] == ' '){
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Makes sure the timer is running so the changes get drawn
+     */
+    private void schedule(){
+        if(!running){
+            running = true;
+            timer.start();
+        }
+    }
+
+    /**
+     * Draws one frame: the cells that changed, then the falling piece on top of them
+     * @param now time of the frame in nanoseconds
+     */
+    private void frame(long now){
+        GraphicsContext g = getGraphicsContext2D();
+        if(full){
+            g.clearRect(0, 0, getWidth(), getHeight());
+            g.setFill(Color.BLUE);
+            g.fillRect(left, top, COLS * cell, ROWS * cell);
+            dirty = ALL_CELLS;
+            full = false;
+        }
+        long paint = dirty;
+        dirty = 0;
+        boolean falling = false;
+        double fallingY = 0;
+        if(drops > 0){
+            if(dropStart == 0){
+                dropStart = now;
+            }
+            double t = (now - dropStart) / 1e9;
+            int i = dropCell[0];
+            int row = i / COLS;
+            // starts a whole cell above the board
+            double y = -1 + GRAVITY * t * t / 2;
+            if(y >= row){
+                cells[i] = dropPiece[0];
+                // the cell above is where the column's hint goes now
+                paint |= 1L << i | above(i);
+                drops--;
+                System.arraycopy(dropCell, 1, dropCell, 0, drops);
+                System.arraycopy(dropPiece, 1, dropPiece, 0, drops);
+                dropStart = now;
+            }
+            else{
+                falling = true;
+                fallingY = y;
+                // the cells the piece is over now have to be drawn again next frame, once it has moved on
+                int col = i % COLS;
+                int r = (int) Math.floor(y);
+                if(r >= 0){
+                    dirty |= 1L << (r * COLS + col);
+                }
+                if(r + 1 < ROWS && r + 1 >= 0){
+                    dirty |= 1L << ((r + 1) * COLS + col);
+                }
+                paint |= dirty;
+            }
+        }
+        while(paint != 0){
+            int i = Long.numberOfTrailingZeros(paint);
+            paint &= paint - 1;
+            paintCell(g, i / COLS, i % COLS, cells[i]);
+        }
+        if(falling){
+            paintPiece(g, fallingY, dropCell[0] % COLS, dropPiece[0]);
+        }
+        if(drops == 0 && dirty == 0){
+            running = false;
+            timer.stop();
+        }
+    }
+
+    private void paintCell(GraphicsContext g, int row, int col, char piece){
+        double x = left + col * cell;
+        double y = top + row * cell;
+        g.setFill(Color.BLUE);
+        g.fillRect(x, y, cell, cell);
+        g.setFill(color(piece));
+        g.fillOval(x + cell * MARGIN, y + cell * MARGIN, cell * (1 - 2 * MARGIN), cell * (1 - 2 * MARGIN));
+        if(piece == ' ' && hints[col] != null && landingRow(col) == row){
+            g.setFill(hintColors[col]);
+            g.setFont(new Font(cell * 0.28));
+            g.setTextAlign(TextAlignment.CENTER);
+            g.setTextBaseline(VPos.CENTER);
+            g.fillText(hints[col], x + cell / 2, y + cell / 2);
+        }
+    }
+
+    /**
+     * Draws a falling piece, cut off at the top of the board so nothing is left behind above it
+     */
+    private void paintPiece(GraphicsContext g, double row, int col, char piece){
+        double x = left + col * cell;
+        double y = top + row * cell;
+        g.save();
+        g.beginPath();
+        g.rect(left, top, COLS * cell, ROWS * cell);
+        g.clip();
+        g.setFill(color(piece));
+        g.fillOval(x + cell * MARGIN, y + cell * MARGIN, cell * (1 - 2 * MARGIN), cell * (1 - 2 * MARGIN));
+        g.restore();
+    }
+
+    private static Color color(char piece){
+        if(piece == PLAYER1_CHAR){
+            return Color.RED;
+        }
+        if(piece == PLAYER2_CHAR){
+            return Color.YELLOW;
+        }
+        return Color.WHITE;
+    }
+}
@@ -0,0 +1,136 @@
+package core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Offline tool that builds an opening book for {@link Connect4OpeningBook}. Every position reachable in the first few
+ * moves is searched with the engine to a fixed depth and its best move is written to the book, sorted by key, along
+ * with that depth. A computer player only plays a book move that was searched at least as deep as its own search
+ * would, so the depth should be well past the depth the players using the book search to.
+ * <p>
+ * Usage: java core.Connect4BookGenerator file [plies] [depth per position]
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4BookGenerator implements Connect4Constants {
+
+    /** Number of moves each position is searched ahead unless told otherwise */
+    public static final int DEFAULT_DEPTH = 16;
+
+    private final int plies;
+    private final Connect4Search search;
+    // canonical key of each position searched, to its packed score and move
+    private final Map<Long, long[]> results = new HashMap<>();
+
+    /**
+     * @param plies positions with fewer pieces than this are put in the book
+     * @param depth number of moves each position is searched ahead, at least 1
+     * @param tableMegabytes size of the transposition table shared by every search
+     */
+    public Connect4BookGenerator(int plies, int depth, int tableMegabytes){
+        this.plies = plies;
+        search = new Connect4Search(depth, new Connect4TranspositionTable(tableMegabytes));
+    }
+
+    /**
+     * Searches every position in range and writes the book
+     * @param file where to write the book
+     * @return number of positions written
+     * @throws IOException if the file cannot be written
+     */
+    public int generate(Path file) throws IOException{
+        visit(new Connect4Position(), PLAYER1_CHAR);
+        long[] keys = new long[results.size()];
+        int n = 0;
+        for(long k : results.keySet()){
+            keys[n++] = k;
+        }
+        Arrays.sort(keys);
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))){
+            out.writeInt(Connect4OpeningBook.MAGIC);
+            out.writeInt(Connect4OpeningBook.VERSION);
+            out.writeInt(keys.length);
+            out.writeInt(plies);
+            for(long k : keys){
+                long[] r = results.get(k);
+                out.writeLong(k);
+                out.writeInt((int) r[0]);
+                out.writeByte((int) r[1]);
+                out.writeByte((int) r[2]);
+                out.writeShort(0);
+            }
+        }
+        return keys.length;
+    }
+
+    /**
+     * Searches a position and every position that follows it, skipping any already searched in either orientation
+     * @param pos position to search
+     * @param piece Identifier of the player to move "X" or "O"
+     */
+    private void visit(Connect4Position pos, char piece){
+        if(pos.getMoves() >= plies){
+            return;
+        }
+        long key = Connect4OpeningBook.key(pos.getMask(piece), pos.getOccupied());
+        long mirrored = Connect4OpeningBook.mirror(key);
+        long canonical = Math.min(key, mirrored);
+        if(results.containsKey(canonical)){
+            return;
+        }
+        int move = search.search(pos, piece);
+        if(move == -1){
+            return;
+        }
+        // the move is stored for the orientation the key was taken from
+        int stored = key <= mirrored ? move : COLS - 1 - move;
+        // the search ends early at a forced win or loss, which holds however deep it is searched, and it cannot look
+        // past the end of the game, so both are stored as searched to the end
+        int depth = search.getDepthReached();
+        if(Math.abs(search.getBestScore()) > Connect4Search.WIN_BOUND || depth >= ROWS * COLS - pos.getMoves()){
+            depth = ROWS * COLS - pos.getMoves();
+        }
+        results.put(canonical, new long[]{search.getBestScore(), stored, depth});
+        if(results.size() % 1000 == 0){
+            System.out.println(results.size() + " positions searched");
+        }
+        char next = piece == PLAYER1_CHAR ? PLAYER2_CHAR : PLAYER1_CHAR;
+        for(int c = 0; c < COLS; c++){
+            if(!pos.canPlay(c)){
+                continue;
+            }
+            Connect4Position child = new Connect4Position(pos);
+            int row = child.place(c, piece);
+            if(!child.connectsFour(row, c)){
+                visit(child, next);
+            }
+        }
+    }
+
+    /**
+     * Builds a book from the command line
+     * @param args file to write, then optionally the number of plies (default 8) and the number of moves to search
+     *             each position ahead (default 16)
+     * @throws IOException if the file cannot be written
+     */
+    public static void main(String[] args) throws IOException{
+        if(args.length < 1){
+            System.out.println("Usage: java core.Connect4BookGenerator file [plies] [depth per position]");
+            return;
+        }
+        int plies = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_DEPTH;
+        long start = System.currentTimeMillis();
+        int n = new Connect4BookGenerator(plies, depth, 256).generate(Paths.get(args[0]));
+        System.out.println("Wrote " + n + " positions to " + args[0] + " in "
+                + (System.currentTimeMillis() - start) / 1000 + "s");
+    }
+}
@@ -9,17 +9,15 @@ import javafx.geometry.Pos;
 import javafx.scene.Node;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.VBox;
-import javafx.scene.paint.Color;
-import javafx.scene.shape.Circle;
 import javafx.stage.Stage;
 import javafx.scene.control.Button;
 import javafx.scene.layout.*;
 import javafx.scene.Scene;
 import javafx.scene.control.Label;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Client class for connect4
@@ -29,6 +27,10 @@ import java.net.Socket;
  */
 public class Connect4Client extends Application implements Connect4Constants {
 
+    // Everything below except the connection and the sender is only used on the FX thread. The reader thread turns
+    // each message from the server into an event on the FX thread, and moves are handed to the sender thread, so
+    // nothing here is shared between threads.
+
     //Only move when it is the players turn
     private boolean myTurn = false;
     //Empty char for myPiece, it will be updated later
@@ -37,21 +39,25 @@ public class Connect4Client extends Application implements Connect4Constants {
     private char otherPiece = ' ';
     //Create a 2D char array for storing the board
     private char[][] cellBoard = new char[Connect4Constants.ROWS][Connect4Constants.COLS];
-    // Establish the gridPane here so that it can be written through throughout
-    private GridPane gBoard = new GridPane();
+    // local copy of the game that this client is playing
+    private final Connect4 game = new Connect4();
+    // the board, drawn on one canvas however many moves are played, with room for a circle and the gap around it
+    private final Connect4BoardView gBoard = new Connect4BoardView(Connect4Constants.CIRCLE_RAD * 2 + 10);
     // labels to tell the players what is happening
     private Label titlelbl = new Label();
     private Label statuslbl = new Label();
     // indicate when the game is over
     private boolean gameOver = false;
-    // Row and column the client has played in
-    private int rowMove;
-    private int colMove;
-    //Create input and output streams to write and receive data
-    private DataInputStream fromServer;
-    private DataOutputStream toServer;
-    // waiting for the player to make a move, becomes false when the player makes a move
-    private boolean waiting = true;
+    // number of this player, PLAYER1 or PLAYER2
+    private int player;
+    // connection to the server, speaking the framed protocol
+    private Connect4Connection server;
+    // sends moves so the FX thread never waits on the socket
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "connect4-sender");
+        t.setDaemon(true);
+        return t;
+    });
     //host name
     private String host = "localhost";
     @Override
@@ -60,20 +66,6 @@ public class Connect4Client extends Application implements Connect4Constants {
      * @param primaryStage is the stage that will hold panes
      */
     public void start(Stage primaryStage){
-        for(int i = 0; i < Connect4Constants.ROWS; i++){
-            for(int j = 0; j < Connect4Constants.COLS; j++){
-                Circle c = new Circle(Connect4Constants.CIRCLE_RAD, Color.WHITE);
-                gBoard.add(c,j,i);
-            }
-        }
-        gBoard.setStyle("-fx-background-color: blue");
-        gBoard.setPadding(new Insets(5,5,5,5));
-        gBoard.hgapProperty().bind(primaryStage.widthProperty().divide(50));
-        gBoard.vgapProperty().bind(primaryStage.heightProperty().divide(50));
-        gBoard.prefHeightProperty().bind(primaryStage.heightProperty());
-        gBoard.prefWidthProperty().bind(primaryStage.widthProperty());
-        gBoard.setAlignment(Pos.CENTER);
-
         HBox buttons = new HBox();
         buttons.spacingProperty().bind(Bindings.min(primaryStage.widthProperty().divide(12),
                 primaryStage.heightProperty().divide(12)));
@@ -92,6 +84,7 @@ public class Connect4Client extends Application implements Connect4Constants {
 
         BorderPane borderPane = new BorderPane();
         borderPane.setTop(labels);
+        // the board fills whatever room the labels and buttons leave
         borderPane.setCenter(gBoard);
         borderPane.setBottom(buttons);
 
@@ -100,167 +93,184 @@ public class Connect4Client extends Application implements Connect4Constants {
         primaryStage.setScene(scene);
         primaryStage.show();
 
-        primaryStage.setOnCloseRequest(e->Platform.exit());
+        primaryStage.setOnCloseRequest(e->{
+            if(server != null){
+                server.close();
+            }
+            Platform.exit();
+        });
 
         connectToServer();
     }
 
     /**
-     * Creates a socket as well as input and output streams, and then creates a thread to handle set up
-     * player number, as well as to run the game
+     * Creates a socket as well as input and output streams, and then creates a thread that reads from the server and
+     * hands each message to the FX thread
      */
     private void connectToServer(){
         try {
             // Socket to connect to the server
             Socket socket = new Socket(host,8000);
 
-            // create input and output streams
-            fromServer = new DataInputStream(socket.getInputStream());
-            toServer = new DataOutputStream(socket.getOutputStream());
+            // say hello so the server sends framed messages
+            server = Connect4Connection.connect(socket);
         }
         catch (Exception e){
             e.printStackTrace();
+            statuslbl.setText("Could not connect to the server");
+            return;
         }
-        //Create a new thread to handle the game
-        new Thread(()->{
+        //Create a new thread to read from the server, it only ever blocks on the socket
+        Thread reader = new Thread(()->{
             try{
-                int player = fromServer.readInt();
-                if(player == Connect4Constants.PLAYER1){
-                    myPiece = Connect4Constants.PLAYER1_CHAR;
-                    otherPiece = Connect4Constants.PLAYER2_CHAR;
-                    Platform.runLater(()-> {
-                        titlelbl.setText("Player 1 with color Red");
-                        statuslbl.setText("Waiting for player 2 to join");
-                    });
+                int number = server.readPlayer();
+                Platform.runLater(()-> recievePlayer(number));
+                if(number == Connect4Constants.PLAYER1){
                     // notification to start the game
-                    fromServer.readInt();
-                    Platform.runLater(()-> statuslbl.setText("Player 2 has joined. You start first"));
-                    // if you are player 1, you start first
-                    myTurn = true;
-                }
-                else if(player == Connect4Constants.PLAYER2){
-                    myPiece = Connect4Constants.PLAYER2_CHAR;
-                    otherPiece = Connect4Constants.PLAYER1_CHAR;
-                    Platform.runLater(()->{
-                        titlelbl.setText("Player 2 with color Yellow");
-                        statuslbl.setText("Waiting for player 1 to move");
-                    });
-                }
-                while(!gameOver){
-                    if(player == Connect4Constants.PLAYER1){
-                        waitForPlayer();
-                        sendMove();
-                        Platform.runLater(()->statuslbl.setText("Waiting for player 2 to move"));
-                        recieveFromServer();
-                    }
-                    else if(player == Connect4Constants.PLAYER2){
-                        recieveFromServer();
-                        waitForPlayer();
-                        sendMove();
-                        Platform.runLater(()->statuslbl.setText("Waiting for player 1 to move"));
-                    }
+                    server.readStart();
+                    Platform.runLater(()-> recieveStart());
                 }
+                int status;
+                do{
+                    int[] update = server.readUpdate();
+                    status = update[0];
+                    Platform.runLater(()-> recieveUpdate(update));
+                }while(status == Connect4Constants.CONT || status == Connect4Protocol.REJECTED);
             }
-            catch (Exception e){
-                e.printStackTrace();
+            catch (IOException e){
+                Platform.runLater(()-> lostConnection());
             }
-        }).start();
+        }, "connect4-reader");
+        reader.setDaemon(true);
+        reader.start();
     }
 
     /**
-     * Waits for player to make a move, that way the function doesnt keep moving without the player making a move
-     * @throws InterruptedException if the thread si interrupted
+     * Sets up the player once the server says which one they are
+     * @param number PLAYER1 or PLAYER2
      */
-    private void waitForPlayer() throws InterruptedException{
-        while(waiting){
-            Thread.sleep(100);
+    private void recievePlayer(int number){
+        player = number;
+        if(player == Connect4Constants.PLAYER1){
+            myPiece = Connect4Constants.PLAYER1_CHAR;
+            otherPiece = Connect4Constants.PLAYER2_CHAR;
+            titlelbl.setText("Player 1 with color Red");
+            statuslbl.setText("Waiting for player 2 to join");
+        }
+        else{
+            myPiece = Connect4Constants.PLAYER2_CHAR;
+            otherPiece = Connect4Constants.PLAYER1_CHAR;
+            titlelbl.setText("Player 2 with color Yellow");
+            statuslbl.setText("Waiting for player 1 to move");
         }
-        waiting = true;
     }
 
     /**
-     * Sends the move to the server after it is made
-     * @throws IOException if there is an error writing a move to the server
+     * Lets player 1 move once player 2 has joined
      */
-    private void sendMove() throws IOException{
-        toServer.writeInt(rowMove);
-        toServer.writeInt(colMove);
+    private void recieveStart(){
+        statuslbl.setText("Player 2 has joined. You start first");
+        // if you are player 1, you start first
+        myTurn = true;
     }
 
     /**
-     *  read the status of the game from the server, handle wins, draws, and continue
-     * @throws IOException if there is an error reading data
+     * Shows what happened to a move, and handles wins, draws, and continue
+     * @param update what the server sent, see {@link Connect4Connection#readUpdate()}
      */
-    private void recieveFromServer() throws IOException{
-        int status = fromServer.readInt();
+    private void recieveUpdate(int[] update){
+        int status = update[0];
+        if(status == Connect4Protocol.REJECTED){
+            statuslbl.setText("That column is full");
+            myTurn = true;
+            return;
+        }
+        int mover = update[1];
+        recieveMove(mover == player ? myPiece : otherPiece, update[2], update[3]);
         if(status == Connect4Constants.PLAYER1_WIN){
             gameOver = true;
             if(myPiece == Connect4Constants.PLAYER1_CHAR){
-                Platform.runLater(()-> statuslbl.setText("You won!"));
+                statuslbl.setText("You won!");
             }
             else if(myPiece == Connect4Constants.PLAYER2_CHAR){
-                Platform.runLater(()-> statuslbl.setText("Player 1 has won"));
-                recieveMove();
+                statuslbl.setText("Player 1 has won");
             }
         }
         else if(status == Connect4Constants.PLAYER2_WIN){
             gameOver = true;
             if(myPiece == Connect4Constants.PLAYER2_CHAR){
-                Platform.runLater(()-> statuslbl.setText("You won!"));
+                statuslbl.setText("You won!");
             }
             else if (myPiece == Connect4Constants.PLAYER1_CHAR){
-                Platform.runLater(()-> statuslbl.setText("Player 2 has won!"));
-                recieveMove();
+                statuslbl.setText("Player 2 has won!");
             }
         }
         else if (status == Connect4Constants.DRAW) {
             gameOver = true;
-            Platform.runLater(()-> statuslbl.setText("The game has ended in a draw"));
-            if(myPiece == Connect4Constants.PLAYER2_CHAR){
-                recieveMove();
-            }
+            statuslbl.setText("The game has ended in a draw");
+        }
+        else if(mover == player){
+            int other = player == Connect4Constants.PLAYER1 ? 2 : 1;
+            statuslbl.setText("Waiting for player " + other + " to move");
         }
         else{
-            recieveMove();
-            Platform.runLater(()->statuslbl.setText("Your turn"));
+            statuslbl.setText("Your turn");
             myTurn = true;
         }
     }
 
     /**
-     * Method to recieve a move from the other player
-     * @throws IOException if there is a an error reading data
+     * Tells the player the server has gone, unless the game is already over
+     */
+    private void lostConnection(){
+        if(!gameOver){
+            gameOver = true;
+            myTurn = false;
+            statuslbl.setText("Lost connection to the server");
+        }
+    }
+
+    /**
+     * Method to show a move the server has played
+     * @param piece piece of the player who moved
+     * @param row row the piece landed in
+     * @param col column the piece was played in
      */
-    private void recieveMove() throws IOException{
-        //get the other players move
-        int row = fromServer.readInt();
-        int col = fromServer.readInt();
-        Connect4.place(col+1, otherPiece);
-        Color c = myPiece == 'O'? Color.RED : Color.YELLOW;
-        Platform.runLater(()->gBoard.add(new Circle(Connect4Constants.CIRCLE_RAD, c), col, row));
+    private void recieveMove(char piece, int row, int col){
+        game.play(col+1, piece);
+        gBoard.drop(row, col, piece);
     }
 
     /**
-     * Handles the event of each click of a button
+     * Handles the event of each click of a button, the piece is drawn once the server has played it
      * @param e a description of the event that happened
      */
     private void handleButton(MouseEvent e){
-        if(myTurn) {
+        if(myTurn && !gameOver) {
             Object node = e.getSource();
             Button b = (Button) node;
-            Color c = myPiece == 'X' ? Color.RED : Color.YELLOW;
             int col = Integer.parseInt(b.getText());
-            int i = Connect4.place(col, myPiece);
-            if (i != -1) {
-                colMove = col-1;
-                rowMove = i;
-                Platform.runLater(() -> gBoard.add(new Circle(Connect4Constants.CIRCLE_RAD, c), colMove, i));
-                waiting = false;
+            // no point asking the server for a column this client already knows is full
+            if (game.getPosition().canPlay(col-1)) {
                 myTurn = false;
+                sender.execute(()-> sendMove(col-1));
             }
         }
     }
 
+    /**
+     * Sends the column the player picked to the server, runs on the sender thread
+     * @param col column starting at 0
+     */
+    private void sendMove(int col){
+        try{
+            server.sendMove(col);
+        }
+        catch (IOException e){
+            Platform.runLater(()-> lostConnection());
+        }
+    }
+
     /**
      * Main method that lets the UI run
      * @param args arguments passed in by the user
@@ -2,25 +2,389 @@ package core;
 
 import core.Connect4;
 
-import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
- * This class contains the logic behind the cpu player for connect4. Currently, the cpu will block the opponent
- * if it finds that they have 3 in a row in either the vertical or horizontal direction, and besides that it
- * will make random moves until the game is over
+ * This class contains the logic behind the cpu player for connect4. The cpu picks its moves with a negamax search
+ * that looks a set number of moves ahead, see {@link Connect4Search}
+ * <p>
+ * With pondering turned on the computer keeps thinking after its move, while the opponent picks theirs. It searches
+ * its answer to each reply the opponent could make, the likeliest first, with the same depth or time limit as a normal
+ * move. If the opponent plays a reply that has been answered the answer is played straight away, if the reply is
+ * still being searched that search is finished, and otherwise the computer searches as usual with a transposition
+ * table the pondering has already filled.
  * @author justin Kolich
  * @version 1.0
  */
 public class Connect4ComputerPlayer {
+    /** Number of moves the computer looks ahead unless told otherwise */
+    public static final int DEFAULT_DEPTH = 10;
+
     private char classifier;
     private int pieces, row=0, col=0;
+    // result of the last move, see Connect4#placeAndCheck
+    private int status = Connect4Constants.CONT;
+    private final Connect4Search search;
+    // time allowed per move in milliseconds, 0 to search to a fixed depth instead
+    private long timeLimit = 0;
+    // used instead of the search when more than one thread is searching
+    private Connect4ParallelSearch parallel;
+    private Connect4OpeningBook book;
+    // deepest a timed search of a position the book covers has got, book moves are only trusted that deep
+    private volatile int timedDepth;
+
+    // seconds the pondering thread is kept after the last time it was used
+    private static final int PONDER_KEEP_ALIVE = 30;
+    // runs the pondering, null until pondering is turned on
+    private ThreadPoolExecutor ponderer;
+    // pondering for the current opponent turn, null if the computer is not pondering
+    private Future<?> pondering;
+    // position the opponent is to move in while pondering
+    private final Connect4Position ponderFrom = new Connect4Position();
+    // answer found to each reply while pondering, -1 until it is found
+    private final AtomicIntegerArray ponderAnswers = new AtomicIntegerArray(Connect4Constants.COLS);
+    // reply being searched while pondering, -1 between searches
+    private volatile int ponderReply = -1;
+    // tells the pondering to stop, or to stop once the reply being searched is answered
+    private volatile boolean ponderStop;
+    private volatile boolean ponderFinish;
+    // only written by the thread making the computer's moves
+    private volatile long ponderHits, ponderMisses;
 
     /**
      * Constructor that sets the classifier to "O" and the pieces to 21
      */
     public Connect4ComputerPlayer(){
+        this(DEFAULT_DEPTH);
+    }
+
+    /**
+     * Constructor that sets the classifier to "O", the pieces to 21 and how far ahead the computer looks
+     * @param depth number of moves to look ahead, at least 1
+     */
+    public Connect4ComputerPlayer(int depth){
+        this(depth, Connect4TranspositionTable.DEFAULT_MB);
+    }
+
+    /**
+     * Constructor that sets the classifier to "O", the pieces to 21, how far ahead the computer looks and how much
+     * memory it keeps for positions it has already searched. That memory is kept between moves of the same game.
+     * @param depth number of moves to look ahead, at least 1
+     * @param tableMegabytes size of the transposition table in megabytes, at least 1
+     */
+    public Connect4ComputerPlayer(int depth, int tableMegabytes){
         classifier = 'O';
         pieces = 21;
+        search = new Connect4Search(depth, new Connect4TranspositionTable(tableMegabytes));
+    }
+
+    /**
+     * Resets the pieces and forgets every position searched so far, for when a new game is started
+     */
+    public void newGame(){
+        stopPondering();
+        pieces = 21;
+        search.getTable().clear();
+    }
+
+    /**
+     *
+     * @param depth number of moves to look ahead, at least 1
+     */
+    public void setDepth(int depth){
+        stopPondering();
+        search.setDepth(depth);
+    }
+
+    /**
+     * Gives the computer a fixed amount of time per move instead of a fixed depth. It searches deeper and deeper
+     * until the time is up and plays the best move from the deepest search that finished.
+     * @param millis time allowed per move in milliseconds, or 0 to go back to searching to a fixed depth
+     */
+    public void setTimeLimit(long millis){
+        if(millis < 0){
+            throw new IllegalArgumentException("time limit cannot be negative");
+        }
+        stopPondering();
+        timeLimit = millis;
+        timedDepth = 0;
+    }
+
+    /**
+     *
+     * @return time allowed per move in milliseconds, or 0 if the computer searches to a fixed depth
+     */
+    public long getTimeLimit(){
+        return timeLimit;
+    }
+
+    /**
+     * Sets how many threads search for each move. They share the computer's transposition table. With one thread
+     * the computer plays exactly as it would without this being set.
+     * @param threads number of threads, at least 1
+     */
+    public void setThreads(int threads){
+        if(threads < 1){
+            throw new IllegalArgumentException("there must be at least one thread");
+        }
+        stopPondering();
+        if(parallel != null){
+            parallel.shutdown();
+        }
+        parallel = threads == 1 ? null : new Connect4ParallelSearch(search, threads);
+    }
+
+    /**
+     * Gives the computer an opening book to play from. While the game is still in the book the computer plays the
+     * book move right away instead of searching, as long as the book searched the position at least as deep as the
+     * computer would. With a time limit that is as deep as the computer's own timed searches of positions the book
+     * covers have got, so the first of those is always searched. The same book can be given to many computer
+     * players.
+     * @param book book to play from, or null to always search
+     */
+    public void setOpeningBook(Connect4OpeningBook book){
+        this.book = book;
+        timedDepth = 0;
+    }
+
+    /**
+     * Turns pondering on or off, see the class description. Pondering runs on a thread of the computer's own that is
+     * only kept while it is being used.
+     * @param on true to think during the opponent's turn
+     */
+    public void setPondering(boolean on){
+        if(!on){
+            stopPondering();
+            if(ponderer != null){
+                ponderer.shutdown();
+                ponderer = null;
+            }
+        }
+        else if(ponderer == null){
+            ponderer = new ThreadPoolExecutor(1, 1, PONDER_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    r -> {
+                        Thread t = new Thread(r, "connect4-ponder");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            ponderer.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     *
+     * @return true if the computer thinks during the opponent's turn
+     */
+    public boolean isPondering(){
+        return ponderer != null;
+    }
+
+    /**
+     *
+     * @return number of moves the opponent made that the computer had pondered on
+     */
+    public long getPonderHits(){
+        return ponderHits;
+    }
+
+    /**
+     *
+     * @return number of moves the opponent made while the computer pondered that it had not got to
+     */
+    public long getPonderMisses(){
+        return ponderMisses;
+    }
+
+    /**
+     * Starts thinking about the opponent's replies, if pondering is on. {@link #makeMove(Connect4)} already does this
+     * after each move, this is for a game where the opponent moves first.
+     * @param pos position the opponent is to move in, it is copied
+     */
+    public void startPondering(Connect4Position pos){
+        stopPondering();
+        if(ponderer == null || pos.isFull() || pos.fourInARow(Connect4Constants.PLAYER1_CHAR)
+                || pos.fourInARow(Connect4Constants.PLAYER2_CHAR)){
+            return;
+        }
+        ponderFrom.set(pos);
+        for(int i = 0; i < Connect4Constants.COLS; i++){
+            ponderAnswers.set(i, -1);
+        }
+        ponderStop = false;
+        ponderFinish = false;
+        Connect4Position from = new Connect4Position(pos);
+        pondering = ponderer.submit(() -> ponder(from));
+    }
+
+    /**
+     * Stops pondering and waits for the pondering thread to let go of the search. It waits even if this thread is
+     * interrupted, since the search and the answers cannot be used again until the pondering thread is done with
+     * them; the interrupt is kept for the caller.
+     */
+    public void stopPondering(){
+        if(pondering == null){
+            return;
+        }
+        ponderStop = true;
+        boolean interrupted = false;
+        // a search started just after the stop clears it, so the stop is repeated until the pondering is over
+        while(!pondering.isDone()){
+            stop();
+            try{
+                pondering.get(10, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException | ExecutionException e){
+                // checked again
+            }
+            catch (InterruptedException e){
+                interrupted = true;
+            }
+        }
+        pondering = null;
+        if(interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs on the pondering thread, answering each reply the opponent could make until told to stop
+     * @param from position the opponent is to move in
+     */
+    private void ponder(Connect4Position from){
+        char opponent = classifier == Connect4Constants.PLAYER1_CHAR ? Connect4Constants.PLAYER2_CHAR
+                : Connect4Constants.PLAYER1_CHAR;
+        // the reply the last search expected comes first, then the middle columns
+        long entry = search.getTable().probe(Connect4TranspositionTable.hash(from, opponent));
+        int expected = entry == Connect4TranspositionTable.MISS ? -1 : Connect4TranspositionTable.moveOf(entry);
+        Connect4Position after = new Connect4Position();
+        for(int i = -1; i < Connect4Constants.COLS && !ponderStop && !ponderFinish; i++){
+            int reply = i == -1 ? expected : Connect4Search.ORDER[i];
+            if(reply == -1 || (i != -1 && reply == expected) || !from.canPlay(reply)){
+                continue;
+            }
+            after.set(from);
+            after.place(reply, opponent);
+            if(after.fourInARow(opponent) || after.isFull()){
+                continue;
+            }
+            ponderReply = reply;
+            int move = bookMove(after);
+            if(move == -1){
+                move = searchMove(after);
+            }
+            // a search cut short by stop() is not as good as a normal move, so it is not kept as an answer
+            if(!ponderStop && !search.wasStopped()){
+                ponderAnswers.set(reply, move);
+            }
+            ponderReply = -1;
+        }
+    }
+
+    /**
+     * Ends pondering for the opponent move that has been made, and finds the answer the pondering picked
+     * @param pos position after the opponent's move
+     * @return column to play starting at 0, or -1 if the move has to be searched
+     */
+    private int ponderedMove(Connect4Position pos){
+        if(pondering == null){
+            return -1;
+        }
+        // the opponent's move is the one piece of theirs that was not there while pondering
+        char opponent = classifier == Connect4Constants.PLAYER1_CHAR ? Connect4Constants.PLAYER2_CHAR
+                : Connect4Constants.PLAYER1_CHAR;
+        long added = pos.getMask(opponent) ^ ponderFrom.getMask(opponent);
+        if(pos.getMoves() != ponderFrom.getMoves() + 1 || Long.bitCount(added) != 1
+                || pos.getMask(classifier) != ponderFrom.getMask(classifier)){
+            stopPondering();
+            return -1;
+        }
+        int reply = Long.numberOfTrailingZeros(added) / Connect4Position.H1;
+        if(ponderAnswers.get(reply) == -1 && ponderReply == reply){
+            // the reply is being searched right now, so that search is finished instead of starting again
+            ponderFinish = true;
+            try{
+                pondering.get();
+            }
+            catch (ExecutionException e){
+                // answered by a normal search below
+            }
+            catch (InterruptedException e){
+                // told to give up on this move, so the search is stopped rather than finished, and its half
+                // searched answer is not kept; stopPondering below still waits for it to end
+                ponderStop = true;
+                stopPondering();
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+        stopPondering();
+        int move = ponderAnswers.get(reply);
+        if(move == -1){
+            ponderMisses++;
+        }
+        else{
+            ponderHits++;
+        }
+        return move;
+    }
+
+    /**
+     *
+     * @return number of threads that search for each move
+     */
+    public int getThreads(){
+        return parallel == null ? 1 : parallel.getWorkers();
+    }
+
+    /**
+     *
+     * @return number of positions visited by every thread for the last move
+     */
+    public long getNodes(){
+        return parallel == null ? search.getNodes() : parallel.getNodes();
+    }
+
+    /**
+     * Can be called from any thread while the computer is picking a move
+     * @return positions visited so far for the move being picked, counted every thousand or so positions
+     */
+    public long getProgressNodes(){
+        return parallel == null ? search.getProgressNodes() : parallel.getProgressNodes();
+    }
+
+    /**
+     * Can be called from any thread while the computer is picking a move
+     * @return how far ahead the computer is looking right now
+     */
+    public int getProgressDepth(){
+        return search.getProgressDepth();
+    }
+
+    /**
+     * Stops a move being picked on another thread as soon as possible. The best move from the deepest search that
+     * finished is played, which always includes a one move search.
+     */
+    public void stop(){
+        if(parallel != null){
+            parallel.stop();
+        }
+        else{
+            search.stop();
+        }
+    }
+
+    /**
+     *
+     * @return the search used to pick moves, which also reports the depth reached and nodes searched
+     */
+    public Connect4Search getSearch(){
+        return search;
     }
 
     /**
@@ -39,6 +403,14 @@ public class Connect4ComputerPlayer {
         return col;
     }
 
+    /**
+     *
+     * @return PLAYER2_WIN, DRAW or CONT depending on the outcome of the last move made by the computer
+     */
+    public int getStatus(){
+        return status;
+    }
+
     /**
      * Decremnts the number of pieces if a move was made
      */
@@ -63,37 +435,74 @@ public class Connect4ComputerPlayer {
     }
 
     /**
-     * Makes a move based on the current state of the board, first sees if it can win, and if it cannot then
-     * the computer blocks the player if they have 3 in a row, and otherwise the move made is random
+     * Makes a move based on the current state of the shared board
      * @param game String representation of the board
+     * @deprecated plays on the board shared by the static Connect4 helpers, use {@link #makeMove(Connect4)}
      */
+    @Deprecated
     public void makeMove(char [][] game){
-        int win = scanBoard(game, 'O');
-        int block = scanBoard(game, 'X');
-        if(win == -1 && block != -1){
-            win = block;
-        }
-        int validMove = -1;
-        do{
-            if(win == -1) {
-                Random rand = new Random();
-                this.col = rand.nextInt(8);
-                validMove = Connect4.place(this.col+1, classifier);
-                if (validMove != -1) {
-                    this.row = validMove;
-                }
-            }
-            else{
-                this.col = win;
-                validMove = Connect4.place(this.col+1, classifier);
-                if (validMove != -1) {
-                    this.row = validMove;
-                }
-                else{
-                    win = -1;
-                }
-            }
-        }while(validMove == -1);
+        makeMove(Connect4.shared());
+    }
+
+    /**
+     * Makes a move in the given game. The search runs on a copy of the board and the move it picks is then played.
+     * If a time limit is set the move is picked within that time. A move from the opening book is played without
+     * searching. Nothing is played if the board is full. With pondering on, a move the computer has already
+     * answered is played at once and the computer starts pondering again once it has moved. If this thread is
+     * interrupted while the pondering is stopped, nothing is played.
+     * @param game the game the computer is playing in
+     */
+    public void makeMove(Connect4 game){
+        Connect4Position pos = game.getPosition();
+        int move = ponderedMove(pos);
+        if(Thread.currentThread().isInterrupted()){
+            return;
+        }
+        if(move == -1 || !pos.canPlay(move)){
+            move = bookMove(pos);
+        }
+        if(move == -1){
+            move = searchMove(pos);
+        }
+        if(move == -1){
+            return;
+        }
+        this.status = game.placeAndCheck(move+1, classifier);
+        this.col = move;
+        this.row = game.getLastRow();
+        if(status == Connect4Constants.CONT){
+            startPondering(pos);
+        }
+    }
+
+    /**
+     *
+     * @param pos position to look up
+     * @return the opening book's move, or -1 if there is no book or it has no legal move for the position
+     */
+    private int bookMove(Connect4Position pos){
+        if(book == null || (timeLimit > 0 && timedDepth == 0)){
+            return -1;
+        }
+        int move = book.lookup(pos, classifier, timeLimit > 0 ? timedDepth : search.getDepth());
+        return move != -1 && pos.canPlay(move) ? move : -1;
+    }
+
+    /**
+     * Searches for a move with whichever search and limit the computer is set up for
+     * @param pos position to search
+     * @return best column starting at 0, or -1 if the board is full
+     */
+    private int searchMove(Connect4Position pos){
+        if(timeLimit == 0){
+            return parallel != null ? parallel.search(pos, classifier) : search.search(pos, classifier);
+        }
+        int move = parallel != null ? parallel.searchTimed(pos, classifier, timeLimit)
+                : search.searchTimed(pos, classifier, timeLimit);
+        if(book != null && pos.getMoves() < book.getPlies() && !search.wasStopped()){
+            timedDepth = Math.max(timedDepth, search.getDepthReached());
+        }
+        return move;
     }
 
     /**
@@ -104,23 +513,34 @@ public class Connect4ComputerPlayer {
      * @return the column number that should be played in
      */
    public int scanBoard(char[][] board, char p){
+       return scanBoard(Connect4Position.fromArray(board), p);
+   }
+
+    /**
+     * Scans the 7 spots on the board that can be played in, if a 4 in a row will be completed by playing in
+     * one of the spots, then that is the value that is returned, otherwise -1 is returned
+     * @param board the position that is currently in play
+     * @param p letter that is being scanned for, "X" or "O"
+     * @return the column number that should be played in
+     */
+   public int scanBoard(Connect4Position board, char p){
        int bestMove = -1;
        for(int i = 5; i >=0; i--){
            for(int j = 0; j < 7; j++){
-               if((i == 5 || board[i+1][j]!= ' ') && board[i][j] == ' ') {
-                   int x = Connect4.horizontal(i, j, p);
+               if((i == 5 || board.get(i+1, j) != 0) && board.get(i, j) == 0) {
+                   int x = Connect4.horizontal(board, i, j, p);
                    if (x >= 3) {
                        bestMove = j;
                    }
-                   x = Connect4.vertical(i, j, p);
+                   x = Connect4.vertical(board, i, j, p);
                    if (x >= 3) {
                        bestMove = j;
                    }
-                   x = Connect4.posDiag(i, j, p);
+                   x = Connect4.posDiag(board, i, j, p);
                    if (x >= 3) {
                        bestMove = j;
                    }
-                   x = Connect4.negDiag(i, j, p);
+                   x = Connect4.negDiag(board, i, j, p);
                    if (x >= 3) {
                        bestMove = j;
                    }
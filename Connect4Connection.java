@@ -0,0 +1,279 @@
+package core;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * A blocking connection between the server and one client, see {@link Connect4Protocol} for the messages. Each
+ * message is built in a buffer that is reused for the whole connection and sent with a single write, and Nagle's
+ * algorithm is turned off since every write is a whole message that the other side is waiting for.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4Connection implements Connect4Constants {
+
+    private final Socket socket;
+    private final boolean framed;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final ByteBuffer outBuffer = ByteBuffer.allocate(Connect4Protocol.MAX_MESSAGE);
+    private final ByteBuffer inBuffer = ByteBuffer.allocate(Connect4Protocol.MAX_MESSAGE);
+    // counts the bytes and messages on the server side, null for a client
+    private final Connect4Metrics metrics;
+
+    private Connect4Connection(Socket socket, boolean framed, Connect4Metrics metrics) throws IOException{
+        this.socket = socket;
+        this.framed = framed;
+        this.metrics = metrics;
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(socket.getInputStream());
+        out = socket.getOutputStream();
+    }
+
+    /**
+     * Sets up the server side of a new connection. Waits up to {@link Connect4Protocol#HELLO_TIMEOUT} milliseconds
+     * for a HELLO, and treats the client as an older client if none comes.
+     * @param socket socket of the client
+     * @return the connection
+     * @throws IOException if the client sent something other than a HELLO, or could not be read
+     */
+    public static Connect4Connection accept(Socket socket) throws IOException{
+        return accept(socket, null);
+    }
+
+    /**
+     * Sets up the server side of a new connection like {@link #accept(Socket)}, counting what is sent and received
+     * @param socket socket of the client
+     * @param metrics counters to update, may be null
+     * @return the connection
+     * @throws IOException if the client sent something other than a HELLO, or could not be read
+     */
+    public static Connect4Connection accept(Socket socket, Connect4Metrics metrics) throws IOException{
+        InputStream raw = socket.getInputStream();
+        int first;
+        socket.setSoTimeout(Connect4Protocol.HELLO_TIMEOUT);
+        try{
+            first = raw.read();
+        }
+        catch (SocketTimeoutException e){
+            socket.setSoTimeout(0);
+            return new Connect4Connection(socket, false, metrics);
+        }
+        if(first == -1){
+            throw new ProtocolException("client left before saying hello");
+        }
+        byte[] hello = new byte[Connect4Protocol.HELLO_SIZE];
+        hello[0] = (byte) first;
+        // the rest of the hello is sent together with the first byte, so the timeout still applies
+        new DataInputStream(raw).readFully(hello, 1, hello.length - 1);
+        socket.setSoTimeout(0);
+        int version = Connect4Protocol.takeHello(ByteBuffer.wrap(hello));
+        if(version != Connect4Protocol.VERSION){
+            throw new ProtocolException("unsupported protocol version " + version);
+        }
+        if(metrics != null){
+            metrics.received(hello.length);
+            metrics.messageReceived();
+        }
+        return new Connect4Connection(socket, true, metrics);
+    }
+
+    /**
+     * Sets up the client side of a new connection and says HELLO to the server
+     * @param socket socket connected to the server
+     * @return the connection
+     * @throws IOException if the HELLO cannot be sent
+     */
+    public static Connect4Connection connect(Socket socket) throws IOException{
+        Connect4Connection c = new Connect4Connection(socket, true, null);
+        Connect4Protocol.putHello(c.outBuffer);
+        c.flush();
+        return c;
+    }
+
+    /**
+     *
+     * @return true if this connection uses framed messages, false if it is an older client
+     */
+    public boolean isFramed(){
+        return framed;
+    }
+
+    /**
+     *
+     * @return the socket of this connection
+     */
+    public Socket getSocket(){
+        return socket;
+    }
+
+    /**
+     * Tells the client its player number
+     * @param player PLAYER1 or PLAYER2
+     * @throws IOException if there is a problem writing data
+     */
+    public void sendPlayer(int player) throws IOException{
+        Connect4Protocol.putPlayer(outBuffer, framed, player);
+        flush();
+    }
+
+    /**
+     * Tells player 1 to start
+     * @throws IOException if there is a problem writing data
+     */
+    public void sendStart() throws IOException{
+        Connect4Protocol.putStart(outBuffer, framed);
+        flush();
+    }
+
+    /**
+     * Tells the client about a move that has been played, see
+     * {@link Connect4Protocol#putResult(java.nio.ByteBuffer, boolean, int, int, int, int, int)}
+     * @param player number of the player this connection belongs to
+     * @param mover number of the player who moved
+     * @param status status of the game after the move, see {@link Connect4Constants}
+     * @param row row the piece landed in
+     * @param col column of the move starting at 0
+     * @throws IOException if there is a problem writing data
+     */
+    public void sendResult(int player, int mover, int status, int row, int col) throws IOException{
+        Connect4Protocol.putResult(outBuffer, framed, player, mover, status, row, col);
+        flush();
+    }
+
+    /**
+     * Tells a framed client its move could not be played
+     * @param col column of the move
+     * @throws IOException if there is a problem writing data
+     */
+    public void sendReject(int col) throws IOException{
+        Connect4Protocol.putReject(outBuffer, col);
+        flush();
+    }
+
+    /**
+     * Sends a move to the server
+     * @param col column of the move starting at 0
+     * @throws IOException if there is a problem writing data
+     */
+    public void sendMove(int col) throws IOException{
+        Connect4Protocol.putMove(outBuffer, col);
+        flush();
+    }
+
+    /**
+     * Waits for a move from the client
+     * @return column of the move starting at 0, not checked in any way
+     * @throws IOException if there is a problem reading data or the client sent something other than a move
+     */
+    public int readMove() throws IOException{
+        inBuffer.clear();
+        if(framed){
+            readMessage(Connect4Protocol.MOVE);
+        }
+        else{
+            in.readFully(inBuffer.array(), 0, Connect4Protocol.LEGACY_MOVE_SIZE);
+            inBuffer.limit(Connect4Protocol.LEGACY_MOVE_SIZE);
+            if(metrics != null){
+                metrics.received(Connect4Protocol.LEGACY_MOVE_SIZE);
+                metrics.messageReceived();
+            }
+        }
+        return Connect4Protocol.takeMove(inBuffer, framed);
+    }
+
+    /**
+     * Waits for the server to send a player number
+     * @return PLAYER1 or PLAYER2
+     * @throws IOException if there is a problem reading data or the server sent something else
+     */
+    public int readPlayer() throws IOException{
+        readMessage(Connect4Protocol.PLAYER);
+        int version = inBuffer.get(Connect4Protocol.HEADER_SIZE);
+        if(version != Connect4Protocol.VERSION){
+            throw new ProtocolException("unsupported protocol version " + version);
+        }
+        return inBuffer.get(Connect4Protocol.HEADER_SIZE + 1);
+    }
+
+    /**
+     * Waits for the server to say that player 2 has joined
+     * @throws IOException if there is a problem reading data or the server sent something else
+     */
+    public void readStart() throws IOException{
+        readMessage(Connect4Protocol.START);
+    }
+
+    /**
+     * Waits for the server to say what happened to a move
+     * @return the status of the game, the number of the player who moved, and the row and column the piece landed
+     * in. If the server did not play this client's move the status is {@link Connect4Protocol#REJECTED} and only
+     * the column is set.
+     * @throws IOException if there is a problem reading data or the server sent something else
+     */
+    public int[] readUpdate() throws IOException{
+        readMessage(Connect4Protocol.UPDATE, Connect4Protocol.REJECT);
+        int p = Connect4Protocol.HEADER_SIZE;
+        if(inBuffer.get(0) == Connect4Protocol.REJECT){
+            return new int[]{Connect4Protocol.REJECTED, 0, -1, inBuffer.get(p)};
+        }
+        return new int[]{inBuffer.get(p), inBuffer.get(p + 1), inBuffer.get(p + 2), inBuffer.get(p + 3)};
+    }
+
+    /**
+     * Closes the connection
+     */
+    public void close(){
+        try{
+            socket.close();
+        }
+        catch (IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads one framed message into the input buffer
+     * @param types types the message is allowed to have
+     * @throws IOException if there is a problem reading data or the message has another type
+     */
+    private void readMessage(byte... types) throws IOException{
+        byte[] b = inBuffer.array();
+        in.readFully(b, 0, Connect4Protocol.HEADER_SIZE);
+        int length = b[1] & 0xff;
+        boolean expected = false;
+        for(byte t : types){
+            expected |= b[0] == t;
+        }
+        if(!expected || Connect4Protocol.HEADER_SIZE + length > b.length){
+            throw new ProtocolException("unexpected message " + b[0]);
+        }
+        in.readFully(b, Connect4Protocol.HEADER_SIZE, length);
+        inBuffer.clear().limit(Connect4Protocol.HEADER_SIZE + length);
+        if(metrics != null){
+            metrics.received(Connect4Protocol.HEADER_SIZE + length);
+            metrics.messageReceived();
+        }
+    }
+
+    /**
+     * Sends everything in the output buffer with one write
+     * @throws IOException if there is a problem writing data
+     */
+    private void flush() throws IOException{
+        if(outBuffer.position() > 0){
+            out.write(outBuffer.array(), 0, outBuffer.position());
+            if(metrics != null){
+                metrics.sent(outBuffer.position());
+                metrics.messageSent();
+            }
+        }
+        outBuffer.clear();
+    }
+}
@@ -5,21 +5,28 @@ package ui; /**
  */
 
 import core.Connect4;
+import core.Connect4Analysis;
+import core.Connect4BoardView;
 import core.Connect4ComputerPlayer;
+import core.Connect4Constants;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
-import javafx.geometry.Insets;
+import javafx.application.Platform;
 import javafx.geometry.Pos;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.ToggleButton;
 import javafx.scene.layout.*;
-import javafx.scene.shape.Circle;
 import javafx.scene.text.Font;
 import javafx.stage.Stage;
 import javafx.scene.Scene;
 import javafx.scene.control.Label;
 import javafx.scene.paint.Color;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Connect4GUI extends Application{
     /**
@@ -83,9 +90,42 @@ public class Connect4GUI extends Application{
     private static Label label;
     private static Label errLabel;
     private static boolean win = false;
+    // result of the last move, see Connect4#placeAndCheck
+    private static int status = Connect4Constants.CONT;
     private static int cRadius = 25;
-    private static GridPane board = new GridPane();
+    private static int boardGap = 10;
+    // drawn on one canvas, so playing a move never adds anything to the scene
+    private static Connect4BoardView board = new Connect4BoardView(cRadius * 2 + boardGap);
     private static char[][] gBoard = new char[6][7];
+    private static Connect4 game = new Connect4();
+
+    // The computer picks its moves on this thread so the window never waits for a search. It works on a copy of the
+    // board and its move is played on the FX thread, so everything above is only ever used on the FX thread.
+    private static final ExecutorService ai = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "connect4-ai");
+        t.setDaemon(true);
+        return t;
+    });
+    // the move the computer is picking, null when it is not thinking
+    private static Future<?> thinking;
+    // counts games so a move picked for a game that has been left is thrown away
+    private static int gameNo = 0;
+    // game the computer is searching for right now, -1 when it is not searching; set on the ai thread
+    private static volatile int searchingGame = -1;
+    // when the computer started thinking and when its progress was last shown, in nanoseconds
+    private static long thinkStart;
+    private static long progressShown;
+    // scores each column in the background for the hints, the scores are shown on the FX thread
+    private static final Connect4Analysis analysis = new Connect4Analysis(
+            scores -> Platform.runLater(()-> showHints(scores)));
+    private static ToggleButton hints;
+    // shows what the search is doing while the computer thinks, and stops searches for games that were left
+    private static final AnimationTimer progress = new AnimationTimer(){
+        @Override
+        public void handle(long now){
+            showProgress(now);
+        }
+    };
 
     /**
      * Starting method for the GUI, First sends an alert to the user asking if they would like to play versus
@@ -104,13 +144,14 @@ public class Connect4GUI extends Application{
         Optional<ButtonType> result = alert.showAndWait();
         label = new Label("Player 1 it is your turn");
         errLabel = new Label("");
-        int boardGap = 10;
 
         if(result.get().equals(buttonP)){
             twoP = true;
         }
         else{
             twoP = false;
+            // the computer thinks about its answers while the player picks a column
+            ai.execute(()-> c.setPondering(true));
         }
 
         //create a HBox of buttons for users to click where they want to play
@@ -128,23 +169,14 @@ public class Connect4GUI extends Application{
         label.setFont(new Font(20));
         errLabel.setFont(new Font(15));
 
+        Button newGame = new Button("New game");
+        newGame.setOnMouseClicked(e-> newGame());
+        hints = new ToggleButton("Hints");
+        hints.setOnMouseClicked(e-> refreshHints());
+
         VBox info = new VBox();
         info.setSpacing(5);
-        info.getChildren().addAll(label, errLabel);
-
-        //create a grid to display a typical connect4 grid on the screen
-        for(int i = 0; i < Connect4.getRows(); i++){
-            for(int j = 0; j < Connect4.getCols(); j++){
-                Circle circle = new Circle(cRadius, Color.WHITE);
-                board.add(circle, j, i);
-            }
-        }
-        board.setHgap(boardGap);
-        board.setVgap(boardGap);
-        board.setStyle("-fx-background-color:blue");
-        board.setMaxWidth(Connect4.getCols()*(boardGap+cRadius));
-        board.setMaxHeight(Connect4.getRows()*(boardGap+cRadius));
-        board.setPadding(new Insets(boardGap/2,boardGap/2,boardGap/2,boardGap/2));
+        info.getChildren().addAll(label, errLabel, newGame, hints);
 
         // borderpane for a layout
         BorderPane borderPane = new BorderPane();
@@ -198,6 +230,100 @@ public class Connect4GUI extends Application{
         });
     }
 
+    /**
+     * Stops the computer from thinking when the window is closed
+     */
+    @Override
+    public void stop(){
+        cancelComputer();
+        ai.shutdownNow();
+        analysis.shutdown();
+    }
+
+    /**
+     * Starts a new game against the same kind of opponent, stopping the computer if it is thinking
+     */
+    public static void newGame(){
+        cancelComputer();
+        gameNo++;
+        game.clear();
+        for(int i = 0; i < 6; i++){
+            for(int j = 0; j < 7; j++){
+                gBoard[i][j] = ' ';
+            }
+        }
+        board.clear();
+        p1 = new Player('X', Color.RED);
+        p2 = new Player('O', Color.YELLOW);
+        currP = p1;
+        win = false;
+        status = Connect4Constants.CONT;
+        // queued behind any search still stopping, so the table is never cleared while it is in use
+        ai.execute(c::newGame);
+        analysis.newGame();
+        label.setText("Player 1 it is your turn");
+        errLabel.setText("");
+        refreshHints();
+    }
+
+    /**
+     * Starts scoring the columns for whoever is to move if hints are on, otherwise stops. Hints are not shown while
+     * the computer is thinking or once the game is over.
+     */
+    private static void refreshHints(){
+        board.clearHints();
+        if(hints != null){
+            hints.setText("Hints");
+        }
+        if(hints == null || !hints.isSelected() || win || thinking != null){
+            analysis.stop();
+            return;
+        }
+        char toMove = game.getPosition().getMoves() % 2 == 0 ? p1.getC() : p2.getC();
+        analysis.analyze(game.getPosition(), toMove);
+    }
+
+    /**
+     * Shows the scores of each column on the board, as they get deeper, on the FX thread
+     * @param scores scores of a position, thrown away if the game has moved on since
+     */
+    private static void showHints(Connect4Analysis.Scores scores){
+        if(!hints.isSelected() || win || thinking != null || !scores.isFor(game.getPosition())){
+            return;
+        }
+        for(int col = 0; col < 7; col++){
+            int s = scores.getScore(col);
+            if(s == Integer.MIN_VALUE){
+                continue;
+            }
+            int moves = scores.getMovesToEnd(col);
+            if(moves != 0 && s > 0){
+                board.setHint(col, "W" + moves, Color.DARKGREEN);
+            }
+            else if(moves != 0){
+                board.setHint(col, "L" + moves, Color.DARKRED);
+            }
+            else if(s == 0 && scores.isExact(col)){
+                board.setHint(col, "draw", Color.GRAY);
+            }
+            else{
+                board.setHint(col, (s > 0 ? "+" : "") + s, Color.GRAY);
+            }
+        }
+        hints.setText("Hints, " + scores.getDepth() + " moves ahead");
+    }
+
+    /**
+     * Throws away the move the computer is picking and stops its search
+     */
+    private static void cancelComputer(){
+        if(thinking != null){
+            thinking.cancel(true);
+            thinking = null;
+        }
+        c.stop();
+    }
+
     /**
      * Initializes the string board so that it contains non null values
      */
@@ -224,11 +350,13 @@ public class Connect4GUI extends Application{
      * @return the row number that was placed in, otherwise -1 if the move was invalid
      */
     public static int place(int col, Player p){
-        int row =  Connect4.place(col, p.getC());
-        if(row!=-1) {
-            gBoard[row][col - 1] = p.getC();
-            win = Connect4.fourInARow(currP.getC());
+        status = game.placeAndCheck(col, p.getC());
+        if(status == -1){
+            return -1;
         }
+        int row = game.getLastRow();
+        gBoard[row][col - 1] = p.getC();
+        win = status != Connect4Constants.CONT;
         return row;
     }
 
@@ -246,13 +374,74 @@ public class Connect4GUI extends Application{
     }
 
     /**
-     * calls the connect4ComputerPlayer class object in order to make the proper move
+     * Starts the connect4ComputerPlayer class object picking its move on the ai thread, the move is played by
+     * {@link #computerMoved(int)} once it is picked
      */
     public static void comp(){
-        c.makeMove(gBoard);
+        Connect4 copy = new Connect4();
+        copy.getPosition().set(game.getPosition());
+        int started = gameNo;
+        thinkStart = System.nanoTime();
+        progressShown = 0;
+        label.setText("The computer is thinking");
+        thinking = ai.submit(()->{
+            searchingGame = started;
+            try{
+                c.makeMove(copy);
+            }
+            finally{
+                searchingGame = -1;
+            }
+            Platform.runLater(()-> computerMoved(started));
+        });
+        progress.start();
+    }
+
+    /**
+     * Plays the move the computer picked, on the FX thread
+     * @param started number of the game the computer was thinking about
+     */
+    private static void computerMoved(int started){
+        if(started != gameNo || thinking == null){
+            // the game was left while the computer was thinking
+            return;
+        }
+        thinking = null;
+        int row = place(c.getCol() + 1, p2);
         c.moveMade();
-        gBoard[c.getRow()][c.getCol()] = c.getC();
-        win = Connect4.fourInARow(c.getC());
+        board.drop(row, c.getCol(), p2.getC());
+        p2.moveMade();
+        if(status == Connect4Constants.DRAW){
+            label.setText("The game has ended in a draw");
+        }
+        else if(win){
+            label.setText("The computer has won!");
+        }
+        else{
+            label.setText("Player 1 it is your turn");
+        }
+        refreshHints();
+    }
+
+    /**
+     * Shows how deep the computer is looking and how fast, a few times a second. Also keeps stopping a search for a
+     * game that was left, in case it only started after it was told to stop.
+     * @param now time of the frame in nanoseconds
+     */
+    private static void showProgress(long now){
+        int searching = searchingGame;
+        if(searching != -1 && searching != gameNo){
+            c.stop();
+        }
+        if(thinking != null && now - progressShown > 100000000L){
+            progressShown = now;
+            double seconds = Math.max(1e-3, (System.nanoTime() - thinkStart) / 1e9);
+            label.setText(String.format("The computer is thinking: depth %d, %.0fk positions/s",
+                    c.getProgressDepth(), c.getProgressNodes() / seconds / 1000));
+        }
+        if(thinking == null && searching == -1){
+            progress.stop();
+        }
     }
 
     /**
@@ -260,12 +449,19 @@ public class Connect4GUI extends Application{
      * @param col the text of the button, aka the column number that is to be placed in
      */
     public static void buttonHandler(int col){
+        if(thinking != null){
+            errLabel.setText("Wait for the computer to move");
+            return;
+        }
         if(!win) {
             int row = place(col, currP);
             if (row != -1) {
-                board.add(new Circle(cRadius, currP.getColor()), col-1, row);
+                board.drop(row, col-1, currP.getC());
                 currP.moveMade();
-                if(win){
+                if(status == Connect4Constants.DRAW){
+                    label.setText("The game has ended in a draw");
+                }
+                else if(win){
                     errLabel.setText("Player " + currP.getNum() + " has won!");
                 }
                 else if(twoP) {
@@ -274,21 +470,14 @@ public class Connect4GUI extends Application{
                     errLabel.setText("");
                 }
                 else{
+                    errLabel.setText("");
                     comp();
-                    board.add(new Circle(cRadius, p2.getColor()), c.getCol(), c.getRow());
-                    p2.moveMade();
-                    if(win){
-                        label.setText("The computer has won!");
-                    }
                 }
+                refreshHints();
             } else {
                 errLabel.setText("Invalid move, please try again");
             }
 
         }
-        if(currP.getPieces() == 0){
-            label.setText("The game has ended in a draw");
-            win = true;
-        }
     }
 }
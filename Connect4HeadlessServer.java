@@ -0,0 +1,252 @@
+package core;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.function.Consumer;
+import javax.management.JMException;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs the connect4 server without a window, so it starts without JavaFX and needs nothing but a JVM. The server
+ * window in {@link Connect4Server} runs one of these too and only adds a view of the log.
+ * <p>
+ * Usage: java core.Connect4HeadlessServer [--nio] [--port=8000] [--log=connect4-server.log] [--metrics-port=N]
+ * [--ai-wait=ms [--ai-threads=N] [--ai-move-ms=100] [--ai-games=10000]]
+ * <br>
+ * A log of "-" writes to standard output. The server's {@link Connect4Metrics} are always registered with JMX, and
+ * with --metrics-port they are also shown as text at http://localhost:N/metrics.
+ * <br>
+ * With --ai-wait a player nobody has joined within that many milliseconds plays the computer, and 0 has every
+ * player play the computer. The computer players share a {@link Connect4AiPool} of --ai-threads search threads, one
+ * per processor unless told otherwise, that gives each move --ai-move-ms milliseconds and plays at most --ai-games
+ * games at once.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4HeadlessServer {
+
+    /** Port the server listens on unless told otherwise */
+    public static final int DEFAULT_PORT = 8000;
+    /** Log file written unless told otherwise */
+    public static final String DEFAULT_LOG = "connect4-server.log";
+
+    private final int port;
+    private final boolean nio;
+    private final Consumer<String> log;
+    private final Connect4Metrics metrics = new Connect4Metrics();
+    // port of the metrics HTTP server, 0 for none
+    private int metricsPort;
+    private HttpServer metricsServer;
+    // only one of these is used, depending on nio
+    private Connect4NioServer nioServer;
+    private ServerSocket serverSocket;
+    private Connect4Matchmaker matchmaker;
+    // how computer opponents are set up, aiWait is -1 for none
+    private int aiThreads;
+    private long aiMoveMillis;
+    private int aiGames;
+    private long aiWait = -1;
+    private Connect4AiPool aiPool;
+
+    /**
+     * @param port port to listen on
+     * @param nio true to run sessions on a few selector loops, false for a thread each
+     * @param log where to send messages about players and sessions, called from any thread
+     */
+    public Connect4HeadlessServer(int port, boolean nio, Consumer<String> log){
+        if(port < 0 || port > 0xffff){
+            throw new IllegalArgumentException("invalid port " + port);
+        }
+        this.port = port;
+        this.nio = nio;
+        this.log = log;
+    }
+
+    /**
+     * Shows the metrics over HTTP once the server starts
+     * @param metricsPort port on the loopback address, 0 for no HTTP server
+     */
+    public synchronized void setMetricsPort(int metricsPort){
+        if(metricsPort < 0 || metricsPort > 0xffff){
+            throw new IllegalArgumentException("invalid port " + metricsPort);
+        }
+        this.metricsPort = metricsPort;
+    }
+
+    /**
+     * Lets players who have waited long enough play the computer once the server starts
+     * @param threads number of search threads shared by every computer player, at least 1
+     * @param moveMillis time allowed for each of the computer's moves in milliseconds, at least 1
+     * @param maxGames most games against the computer at once, at least 1
+     * @param waitMillis milliseconds a player waits for another player first, 0 to always play the computer
+     */
+    public synchronized void setAiOpponents(int threads, long moveMillis, int maxGames, long waitMillis){
+        if(threads < 1 || moveMillis < 1 || maxGames < 1 || waitMillis < 0){
+            throw new IllegalArgumentException("invalid computer opponent settings");
+        }
+        aiThreads = threads;
+        aiMoveMillis = moveMillis;
+        aiGames = maxGames;
+        aiWait = waitMillis;
+    }
+
+    /**
+     *
+     * @return the server's counters
+     */
+    public Connect4Metrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * Opens the port and starts accepting players on a thread of its own, returns straight away
+     * @throws IOException if the port cannot be opened
+     */
+    public synchronized void start() throws IOException{
+        if(aiWait >= 0){
+            aiPool = new Connect4AiPool(aiThreads, aiMoveMillis, aiGames);
+            metrics.setAiPool(aiPool);
+            log.accept("Computer opponents after " + aiWait + "ms, " + aiThreads + " threads, " + aiMoveMillis
+                    + "ms a move, at most " + aiGames + " games");
+        }
+        try{
+            metrics.register();
+        }
+        catch (JMException e){
+            log.accept("Metrics not registered with JMX: " + e.getMessage());
+        }
+        if(metricsPort > 0){
+            metricsServer = metrics.startHttp(metricsPort);
+            log.accept("Metrics at http://localhost:" + metricsPort + Connect4Metrics.PATH);
+        }
+        if(nio){
+            nioServer = new Connect4NioServer(port, Connect4NioServer.DEFAULT_LOOPS, log, metrics);
+            if(aiPool != null){
+                nioServer.setAiOpponents(aiPool, aiWait);
+            }
+            nioServer.start();
+            return;
+        }
+        // a large backlog so bursts of players connecting are not refused while the accept loop catches up
+        serverSocket = new ServerSocket(port, 1024);
+        matchmaker = new Connect4Matchmaker((p1, p2) -> new Connect4Session(p1, p2, metrics), log, metrics);
+        if(aiPool != null){
+            matchmaker.setAiOpponents(aiPool, aiWait);
+        }
+        log.accept("Server started at socket " + serverSocket.getLocalPort());
+        ServerSocket socket = serverSocket;
+        Connect4Matchmaker players = matchmaker;
+        Thread accept = new Thread(()->{
+            // the accept loop only accepts, the matchmaker talks to the players and pairs them
+            try{
+                while(true){
+                    players.enqueue(socket.accept());
+                }
+            }
+            catch (IOException e){
+                if(!socket.isClosed()){
+                    log.accept("Stopped accepting players: " + e.getMessage());
+                }
+            }
+        }, "connect4-accept");
+        accept.setDaemon(true);
+        accept.start();
+    }
+
+    /**
+     *
+     * @return the port the server is listening on
+     */
+    public synchronized int getPort(){
+        if(nioServer != null){
+            return nioServer.getPort();
+        }
+        return serverSocket == null ? port : serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting players and closes every session
+     */
+    public synchronized void stop(){
+        if(metricsServer != null){
+            metricsServer.stop(0);
+        }
+        metrics.unregister();
+        if(nioServer != null){
+            nioServer.stop();
+        }
+        if(serverSocket != null){
+            try{
+                serverSocket.close();
+            }
+            catch (IOException e){
+                log.accept("Could not close the server socket: " + e.getMessage());
+            }
+            matchmaker.shutdown();
+        }
+        if(aiPool != null){
+            aiPool.shutdown();
+        }
+    }
+
+    /**
+     * Finds the value of a --name=value argument
+     * @param args arguments passed in the terminal
+     * @param name name of the argument
+     * @param otherwise value to use if the argument is not there
+     * @return the value
+     */
+    static String option(String[] args, String name, String otherwise){
+        String prefix = "--" + name + "=";
+        for(String arg : args){
+            if(arg.startsWith(prefix)){
+                return arg.substring(prefix.length());
+            }
+        }
+        return otherwise;
+    }
+
+    /**
+     * Sets up computer opponents from the --ai-* arguments, if --ai-wait is there
+     * @param server server to set up
+     * @param args arguments passed in the terminal, see the class description
+     */
+    static void aiOptions(Connect4HeadlessServer server, String[] args){
+        String wait = option(args, "ai-wait", null);
+        if(wait == null){
+            return;
+        }
+        int threads = Integer.parseInt(option(args, "ai-threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        long moveMillis = Long.parseLong(option(args, "ai-move-ms", Long.toString(Connect4AiPool.DEFAULT_MOVE_MILLIS)));
+        int games = Integer.parseInt(option(args, "ai-games", Integer.toString(Connect4AiPool.DEFAULT_MAX_GAMES)));
+        server.setAiOpponents(threads, moveMillis, games, Long.parseLong(wait));
+    }
+
+    /**
+     * Runs the server until the JVM is stopped
+     * @param args see the class description
+     * @throws IOException if the log or the port cannot be opened
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException{
+        boolean nio = false;
+        for(String arg : args){
+            nio |= arg.equals("--nio");
+        }
+        int port = Integer.parseInt(option(args, "port", Integer.toString(DEFAULT_PORT)));
+        Connect4Log log = new Connect4Log(option(args, "log", DEFAULT_LOG), null);
+        Connect4HeadlessServer server = new Connect4HeadlessServer(port, nio, log);
+        server.setMetricsPort(Integer.parseInt(option(args, "metrics-port", "0")));
+        aiOptions(server, args);
+        // write out what is still in the log when the container or terminal stops the server
+        Runtime.getRuntime().addShutdownHook(new Thread(()->{
+            server.stop();
+            log.close();
+        }, "connect4-shutdown"));
+        server.start();
+        // every server thread is a daemon, so this thread is what keeps the JVM running
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,145 @@
+package core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of times in nanoseconds that any number of threads can record into without locking, laid out like an
+ * HdrHistogram. Times below 64 each have a bucket of their own; above that every power of 2 is split into 32
+ * buckets, so a percentile is never off by more than about 3% and the whole range of a long fits in under 2000
+ * counters.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4Histogram implements Connect4HistogramMBean {
+
+    // bits of a time kept below its highest bit
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a time
+     * @param nanos the time, negative times count as 0
+     */
+    public void record(long nanos){
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(index(v));
+        count.increment();
+        total.add(v);
+        long m = max.get();
+        while(v > m && !max.compareAndSet(m, v)){
+            m = max.get();
+        }
+    }
+
+    /**
+     * Finds the bucket a time goes in
+     * @param v the time, at least 0
+     * @return index of the bucket
+     */
+    static int index(long v){
+        if(v < 2 * SUB_COUNT){
+            return (int) v;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        return (exp - SUB_BITS) * SUB_COUNT + (int) (v >>> (exp - SUB_BITS));
+    }
+
+    /**
+     * Finds the smallest time that goes in a bucket
+     * @param index index of the bucket
+     * @return the time
+     */
+    static long lowest(int index){
+        if(index < 2 * SUB_COUNT){
+            return index;
+        }
+        int exp = index / SUB_COUNT + SUB_BITS - 1;
+        long mantissa = index % SUB_COUNT + SUB_COUNT;
+        return mantissa << (exp - SUB_BITS);
+    }
+
+    /**
+     * Finds the time that a share of the recorded times are at or below. Counts recorded while this runs may or
+     * may not be included.
+     * @param percentile the share, from 0 to 100
+     * @return the time in nanoseconds, the top of the bucket it falls in, or 0 if nothing has been recorded
+     */
+    public long percentile(double percentile){
+        if(percentile < 0 || percentile > 100){
+            throw new IllegalArgumentException("percentile must be from 0 to 100");
+        }
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if(n == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += snapshot[i];
+            if(seen >= rank){
+                long top = i + 1 < BUCKETS ? lowest(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(top, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public long getCount(){
+        return count.sum();
+    }
+
+    @Override
+    public double getMean(){
+        long n = count.sum();
+        return n == 0 ? 0 : total.sum() / 1000.0 / n;
+    }
+
+    @Override
+    public long getMax(){
+        return max.get() / 1000;
+    }
+
+    @Override
+    public long getP50(){
+        return percentile(50) / 1000;
+    }
+
+    @Override
+    public long getP90(){
+        return percentile(90) / 1000;
+    }
+
+    @Override
+    public long getP99(){
+        return percentile(99) / 1000;
+    }
+
+    @Override
+    public long getP999(){
+        return percentile(99.9) / 1000;
+    }
+
+    @Override
+    public void reset(){
+        for(int i = 0; i < BUCKETS; i++){
+            counts.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+}
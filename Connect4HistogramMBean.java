@@ -0,0 +1,56 @@
+package core;
+
+/**
+ * What JMX shows of a {@link Connect4Histogram}, every time is in microseconds
+ * @author justin Kolich
+ * @version 1.0
+ */
+public interface Connect4HistogramMBean {
+
+    /**
+     *
+     * @return number of times recorded
+     */
+    long getCount();
+
+    /**
+     *
+     * @return average of the times recorded
+     */
+    double getMean();
+
+    /**
+     *
+     * @return longest time recorded
+     */
+    long getMax();
+
+    /**
+     *
+     * @return median time
+     */
+    long getP50();
+
+    /**
+     *
+     * @return time 90% of the times are at or below
+     */
+    long getP90();
+
+    /**
+     *
+     * @return time 99% of the times are at or below
+     */
+    long getP99();
+
+    /**
+     *
+     * @return time 99.9% of the times are at or below
+     */
+    long getP999();
+
+    /**
+     * Forgets every time recorded so far
+     */
+    void reset();
+}
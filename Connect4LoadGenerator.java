@@ -0,0 +1,298 @@
+package core;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test for the connect4 server without a window. Opens many connections at once, each one a bot that plays full
+ * games against whichever bot the server pairs it with, or the computer when the server hosts computer opponents
+ * (see {@link Connect4AiPool}), through the same framed protocol as {@link Connect4Client}, and starts a new game on
+ * a new connection as soon as one ends. Bots pick random columns, or search like the computer player when given a
+ * depth; the searches are shared between bots, one per processor, so thousands of bots do not need thousands of
+ * transposition tables.
+ * <p>
+ * Every second it prints the games and moves finished in that second, the move latency percentiles and the errors
+ * so far, and at the end a summary of the whole run. Move latency is the time from a bot sending its move to the
+ * server telling it where the piece landed. A bot also checks every update against its own copy of the board, so a
+ * server that gets a move wrong shows up as an error.
+ * <p>
+ * Usage: java core.Connect4LoadGenerator [--host=localhost] [--port=8000] [--connections=1000] [--seconds=30]
+ * [--ai=depth]
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4LoadGenerator implements Connect4Constants {
+
+    /** Connections kept open unless told otherwise */
+    public static final int DEFAULT_CONNECTIONS = 1000;
+    /** Seconds a run lasts unless told otherwise */
+    public static final int DEFAULT_SECONDS = 30;
+    // milliseconds allowed to connect, and to wait for anything from the server
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 30000;
+    // milliseconds bots are given to finish their games once the run is over
+    private static final long GRACE = 5000;
+    // most milliseconds a bot waits after an error, so a server refusing connections is not hammered
+    private static final int ERROR_BACKOFF = 100;
+
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final int aiDepth;
+    // searches bots take turns with, empty for random moves
+    private final BlockingQueue<Connect4Search> searches;
+
+    private final LongAdder games = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Map<String, LongAdder> errorTypes = new ConcurrentHashMap<>();
+    private final Connect4Histogram latency = new Connect4Histogram();
+    // latency of the moves since the last report only
+    private final Connect4Histogram recent = new Connect4Histogram();
+    // sockets of games being played, so they can be closed once the run is over
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private volatile boolean running;
+
+    /**
+     * @param host host the server is on
+     * @param port port the server listens on
+     * @param connections number of bots playing at once, at least 2
+     * @param aiDepth how far ahead bots look, 0 for random moves
+     */
+    public Connect4LoadGenerator(String host, int port, int connections, int aiDepth){
+        if(connections < 2){
+            throw new IllegalArgumentException("at least 2 connections are needed to play a game");
+        }
+        if(aiDepth < 0){
+            throw new IllegalArgumentException("depth must be at least 0");
+        }
+        this.host = host;
+        this.port = port;
+        this.connections = connections;
+        this.aiDepth = aiDepth;
+        int n = aiDepth == 0 ? 1 : Runtime.getRuntime().availableProcessors();
+        searches = new ArrayBlockingQueue<>(n);
+        if(aiDepth > 0){
+            for(int i = 0; i < n; i++){
+                searches.add(new Connect4Search(aiDepth, new Connect4TranspositionTable(4)));
+            }
+        }
+    }
+
+    /**
+     * Runs the bots for a while, printing a report every second and a summary at the end
+     * @param seconds how long to run for
+     * @param report where to print
+     * @throws InterruptedException if the thread is interrupted while waiting for the run to end
+     */
+    public void run(int seconds, PrintStream report) throws InterruptedException{
+        running = true;
+        ExecutorService bots = Connect4Matchmaker.newSessionExecutor();
+        for(int i = 0; i < connections; i++){
+            bots.execute(this::bot);
+        }
+        report.printf("%6s %9s %9s %9s %9s %9s %7s%n", "second", "games/s", "moves/s", "p50 us", "p99 us",
+                "p999 us", "errors");
+        long start = System.nanoTime();
+        long lastGames = 0;
+        long lastMoves = 0;
+        for(int s = 1; s <= seconds; s++){
+            long next = start + s * 1000000000L;
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, next - System.nanoTime()));
+            long g = games.sum();
+            long m = moves.sum();
+            report.printf("%6d %9d %9d %9d %9d %9d %7d%n", s, g - lastGames, m - lastMoves,
+                    recent.percentile(50) / 1000, recent.percentile(99) / 1000, recent.percentile(99.9) / 1000,
+                    errors.sum());
+            recent.reset();
+            lastGames = g;
+            lastMoves = m;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        running = false;
+
+        // let games being played finish, then close whatever is still waiting for a partner
+        bots.shutdown();
+        if(!bots.awaitTermination(GRACE, TimeUnit.MILLISECONDS)){
+            for(Socket socket : open){
+                close(socket);
+            }
+            bots.shutdownNow();
+            bots.awaitTermination(GRACE, TimeUnit.MILLISECONDS);
+        }
+        summary(report, elapsed);
+    }
+
+    /**
+     * Prints the totals for the whole run
+     * @param report where to print
+     * @param elapsed seconds the run lasted, not counting the time given to finish
+     */
+    private void summary(PrintStream report, double elapsed){
+        report.println();
+        report.printf("connections %d, %s moves%n", connections, aiDepth == 0 ? "random" : "depth " + aiDepth);
+        report.printf("games %d (%.1f/s), moves %d (%.1f/s)%n", games.sum(), games.sum() / elapsed, moves.sum(),
+                moves.sum() / elapsed);
+        report.printf("move latency us: p50 %d, p90 %d, p99 %d, p99.9 %d, max %d, mean %.1f%n", latency.getP50(),
+                latency.getP90(), latency.getP99(), latency.getP999(), latency.getMax(), latency.getMean());
+        report.printf("errors %d%n", errors.sum());
+        Map<String, LongAdder> sorted = new TreeMap<>(errorTypes);
+        for(Map.Entry<String, LongAdder> e : sorted.entrySet()){
+            report.printf("  %s: %d%n", e.getKey(), e.getValue().sum());
+        }
+    }
+
+    /**
+     * Runs on a bot's own thread, playing one game after another until the run is over
+     */
+    private void bot(){
+        Random random = ThreadLocalRandom.current();
+        while(running){
+            try{
+                playGame(random);
+            }
+            catch (IOException e){
+                if(running){
+                    errors.increment();
+                    errorTypes.computeIfAbsent(e.getClass().getSimpleName(), k -> new LongAdder()).increment();
+                    try{
+                        Thread.sleep(1 + random.nextInt(ERROR_BACKOFF));
+                    }
+                    catch (InterruptedException ie){
+                        return;
+                    }
+                }
+            }
+            catch (InterruptedException e){
+                return;
+            }
+        }
+    }
+
+    /**
+     * Connects to the server and plays one game
+     * @param random where random moves come from
+     * @throws IOException if the connection fails or the server does something unexpected
+     * @throws InterruptedException if the thread is interrupted while waiting for a search
+     */
+    private void playGame(Random random) throws IOException, InterruptedException{
+        try(Socket socket = new Socket()){
+            open.add(socket);
+            try{
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+                socket.setSoTimeout(READ_TIMEOUT);
+                Connect4Connection server = Connect4Connection.connect(socket);
+                int me = server.readPlayer();
+                char myPiece = me == PLAYER1 ? PLAYER1_CHAR : PLAYER2_CHAR;
+                char otherPiece = me == PLAYER1 ? PLAYER2_CHAR : PLAYER1_CHAR;
+                Connect4 game = new Connect4();
+                boolean myTurn = me == PLAYER1;
+                if(myTurn){
+                    server.readStart();
+                }
+                while(true){
+                    int[] update;
+                    if(myTurn){
+                        int col = pickMove(game, myPiece, random);
+                        long sent = System.nanoTime();
+                        server.sendMove(col);
+                        update = server.readUpdate();
+                        long took = System.nanoTime() - sent;
+                        latency.record(took);
+                        recent.record(took);
+                        moves.increment();
+                        if(update[1] != me || update[3] != col){
+                            throw new ProtocolException("my move came back as " + update[3]);
+                        }
+                    }
+                    else{
+                        update = server.readUpdate();
+                        if(update[1] == me){
+                            throw new ProtocolException("update for a move I did not make");
+                        }
+                    }
+                    int row = game.play(update[3] + 1, myTurn ? myPiece : otherPiece);
+                    if(row != update[2]){
+                        throw new ProtocolException("server board differs from mine");
+                    }
+                    if(update[0] != CONT){
+                        if(me == PLAYER1){
+                            games.increment();
+                        }
+                        return;
+                    }
+                    myTurn = !myTurn;
+                }
+            }
+            finally{
+                open.remove(socket);
+            }
+        }
+    }
+
+    /**
+     * Picks a legal column to play in
+     * @param game the bot's copy of the board
+     * @param piece the bot's piece
+     * @param random where random moves come from
+     * @return column starting at 0
+     * @throws InterruptedException if the thread is interrupted while waiting for a search
+     */
+    private int pickMove(Connect4 game, char piece, Random random) throws InterruptedException{
+        Connect4Position pos = game.getPosition();
+        if(aiDepth > 0){
+            Connect4Search search = searches.take();
+            try{
+                return search.search(pos, piece);
+            }
+            finally{
+                searches.put(search);
+            }
+        }
+        int col = random.nextInt(COLS);
+        while(!pos.canPlay(col)){
+            col = (col + 1) % COLS;
+        }
+        return col;
+    }
+
+    private static void close(Socket s){
+        try{
+            s.close();
+        }
+        catch (IOException e){
+            // already closed
+        }
+    }
+
+    /**
+     * Runs a load test from the command line
+     * @param args see the class description
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    public static void main(String[] args) throws InterruptedException{
+        String host = Connect4HeadlessServer.option(args, "host", "localhost");
+        int port = Integer.parseInt(Connect4HeadlessServer.option(args, "port",
+                Integer.toString(Connect4HeadlessServer.DEFAULT_PORT)));
+        int connections = Integer.parseInt(Connect4HeadlessServer.option(args, "connections",
+                Integer.toString(DEFAULT_CONNECTIONS)));
+        int seconds = Integer.parseInt(Connect4HeadlessServer.option(args, "seconds",
+                Integer.toString(DEFAULT_SECONDS)));
+        int depth = Integer.parseInt(Connect4HeadlessServer.option(args, "ai", "0"));
+        new Connect4LoadGenerator(host, port, connections, depth).run(seconds, System.out);
+    }
+}
@@ -0,0 +1,264 @@
+package core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.function.Consumer;
+
+/**
+ * Log for the server that never makes the thread logging wait. Messages go into a fixed size ring and a background
+ * thread writes them out in batches, to a file that is rotated once it gets too big, or to standard output. If the
+ * ring is full the message is dropped and counted instead, and the number dropped is written once there is room.
+ * <p>
+ * A view, like the server window, can be given every batch as it is written. It is called on the writer thread.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4Log implements Consumer<String>, AutoCloseable {
+
+    /** Messages the ring holds before messages are dropped */
+    public static final int DEFAULT_CAPACITY = 8192;
+    /** Size a log file can reach before it is rotated */
+    public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024;
+    /** Number of old log files kept, as name.1 up to name.N */
+    public static final int DEFAULT_MAX_FILES = 5;
+    /** Log file name that means standard output */
+    public static final String STDOUT = "-";
+
+    private final Path path;
+    private final long maxBytes;
+    private final int maxFiles;
+    private final Consumer<String> view;
+
+    // the ring, guarded by itself; head is the next message to write and tail the next free slot
+    private final String[] messages;
+    private final long[] times;
+    private final int mask;
+    private long head;
+    private long tail;
+    private long dropped;
+    private boolean closed;
+
+    private final Thread writer;
+    private Writer out;
+    private long bytes;
+
+    /**
+     * Opens a log with the default sizes
+     * @param file name of the log file, or {@link #STDOUT}
+     * @param view given each batch of lines that is written, may be null
+     * @throws IOException if the log file cannot be opened
+     */
+    public Connect4Log(String file, Consumer<String> view) throws IOException{
+        this(file, view, DEFAULT_CAPACITY, DEFAULT_MAX_BYTES, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * Opens a log
+     * @param file name of the log file, or {@link #STDOUT}
+     * @param view given each batch of lines that is written, may be null
+     * @param capacity messages the ring holds, rounded up to a power of 2
+     * @param maxBytes size a log file can reach before it is rotated
+     * @param maxFiles number of old log files kept
+     * @throws IOException if the log file cannot be opened
+     */
+    public Connect4Log(String file, Consumer<String> view, int capacity, long maxBytes, int maxFiles)
+            throws IOException{
+        if(capacity < 1 || maxBytes < 1 || maxFiles < 0){
+            throw new IllegalArgumentException("invalid log sizes");
+        }
+        path = STDOUT.equals(file) ? null : Paths.get(file);
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        this.view = view;
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        messages = new String[size];
+        times = new long[size];
+        mask = size - 1;
+        open();
+        writer = new Thread(this::drain, "connect4-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Logs a message, returns straight away
+     * @param msg the message
+     */
+    @Override
+    public void accept(String msg){
+        long now = System.currentTimeMillis();
+        synchronized(messages){
+            if(closed || tail - head == messages.length){
+                dropped++;
+                return;
+            }
+            int i = (int) (tail & mask);
+            messages[i] = msg;
+            times[i] = now;
+            if(tail++ == head){
+                messages.notify();
+            }
+        }
+    }
+
+    /**
+     *
+     * @return number of messages dropped because the ring was full
+     */
+    public long getDropped(){
+        synchronized(messages){
+            return dropped;
+        }
+    }
+
+    /**
+     * Writes every message logged so far and closes the file
+     */
+    @Override
+    public void close(){
+        synchronized(messages){
+            closed = true;
+            messages.notify();
+        }
+        try{
+            writer.join();
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs on the writer thread, writing batches until the log is closed
+     */
+    private void drain(){
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        Date date = new Date();
+        StringBuilder batch = new StringBuilder();
+        // the messages taken out of the ring, so they are formatted without holding the lock
+        String[] taken = new String[messages.length];
+        long[] takenTimes = new long[messages.length];
+        long reported = 0;
+        while(true){
+            boolean last;
+            int n = 0;
+            long newlyDropped = 0;
+            synchronized(messages){
+                while(head == tail && !closed){
+                    try{
+                        messages.wait();
+                    }
+                    catch (InterruptedException e){
+                        closed = true;
+                    }
+                }
+                last = closed;
+                for(; head < tail; head++){
+                    int i = (int) (head & mask);
+                    taken[n] = messages[i];
+                    takenTimes[n++] = times[i];
+                    messages[i] = null;
+                }
+                if(dropped > reported){
+                    newlyDropped = dropped - reported;
+                    reported = dropped;
+                }
+            }
+            for(int i = 0; i < n; i++){
+                date.setTime(takenTimes[i]);
+                batch.append(format.format(date)).append(": ").append(taken[i]).append('\n');
+                taken[i] = null;
+            }
+            if(newlyDropped > 0){
+                batch.append(newlyDropped).append(" log messages dropped\n");
+            }
+            if(batch.length() > 0){
+                write(batch.toString());
+                batch.setLength(0);
+            }
+            if(last){
+                try{
+                    if(path == null){
+                        // standard output is left open for the rest of the program
+                        out.flush();
+                    }
+                    else{
+                        out.close();
+                    }
+                }
+                catch (IOException e){
+                    e.printStackTrace();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of lines, rotating the file first if they would make it too big
+     * @param lines the lines
+     */
+    private void write(String lines){
+        try{
+            // counted as written, since a line with characters past ASCII takes more bytes than characters
+            int size = path == null ? 0 : lines.getBytes(StandardCharsets.UTF_8).length;
+            if(path != null && bytes > 0 && bytes + size > maxBytes){
+                rotate();
+            }
+            out.write(lines);
+            out.flush();
+            bytes += size;
+        }
+        catch (IOException e){
+            e.printStackTrace();
+        }
+        if(view != null){
+            view.accept(lines);
+        }
+    }
+
+    /**
+     * Opens the log file, adding to it if it is already there
+     * @throws IOException if the file cannot be opened
+     */
+    private void open() throws IOException{
+        if(path == null){
+            out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            return;
+        }
+        bytes = Files.exists(path) ? Files.size(path) : 0;
+        out = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Moves name.N-1 to name.N and so on down to moving the log file to name.1, then starts a new log file
+     * @throws IOException if the files cannot be moved or the new file opened
+     */
+    private void rotate() throws IOException{
+        out.close();
+        if(maxFiles == 0){
+            Files.delete(path);
+        }
+        else{
+            for(int i = maxFiles - 1; i >= 1; i--){
+                Path older = Paths.get(path + "." + i);
+                if(Files.exists(older)){
+                    Files.move(older, Paths.get(path + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(path, Paths.get(path + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        open();
+    }
+}
@@ -0,0 +1,395 @@
+package core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Pairs players into sessions for the blocking server. The accept thread only hands each new socket to
+ * {@link #enqueue(Socket)}; everything that talks to a player, waiting for their HELLO, telling them their player
+ * number and pairing them with someone, runs on the session executor, so a slow or stuck client never holds up
+ * anyone connecting after it. A new player is paired with the longest waiting player that is still connected,
+ * otherwise they wait as player 1. Sessions run on virtual threads when the JVM has them (Java 21 and up) and on a
+ * cached thread pool otherwise, and every running session is kept in a registry until it ends.
+ * <p>
+ * With computer opponents set up, a player 1 nobody has joined after a while plays the computer instead, as long as
+ * the {@link Connect4AiPool} admits the game. A player the pool turns away keeps waiting and is offered the computer
+ * again later.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4Matchmaker implements Connect4Constants {
+
+    private final BiFunction<Connect4Connection, Connect4Connection, Runnable> sessions;
+    private final Consumer<String> log;
+    private final Connect4Metrics metrics;
+    private final ExecutorService executor;
+    // players that have been told they are player 1 and are waiting for someone to join, guarded by itself
+    private final ArrayDeque<Connect4Connection> waiting = new ArrayDeque<>();
+    private final Map<Integer, Runnable> running = new ConcurrentHashMap<>();
+    // players of each running session, closed on shutdown since a blocked read does not notice an interrupt
+    private final Map<Integer, Connect4Connection[]> players = new ConcurrentHashMap<>();
+    private volatile boolean shutDown;
+    private final AtomicInteger sessionNo = new AtomicInteger(1);
+    // milliseconds before a player turned away by a saturated pool is offered the computer again
+    private static final long AI_RETRY = 1000;
+    // computer opponents and how long a player waits before playing one, ai is null for none
+    private volatile Connect4AiPool ai;
+    private volatile long aiWait;
+    // offers waiting players the computer once they have waited long enough
+    private ScheduledExecutorService aiTimer;
+
+    /**
+     * @param sessions makes the session for player 1 and player 2, run once both have been told their numbers
+     * @param log where to send messages about players joining and sessions starting, called from any thread
+     */
+    public Connect4Matchmaker(BiFunction<Connect4Connection, Connect4Connection, Runnable> sessions,
+                              Consumer<String> log){
+        this(sessions, log, new Connect4Metrics());
+    }
+
+    /**
+     * @param sessions makes the session for player 1 and player 2, run once both have been told their numbers
+     * @param log where to send messages about players joining and sessions starting, called from any thread
+     * @param metrics counters for connections, sessions and the threads running them
+     */
+    public Connect4Matchmaker(BiFunction<Connect4Connection, Connect4Connection, Runnable> sessions,
+                              Consumer<String> log, Connect4Metrics metrics){
+        this.sessions = sessions;
+        this.log = log;
+        this.metrics = metrics;
+        executor = newSessionExecutor();
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread, or on a cached pool of daemon threads if
+     * the JVM does not have virtual threads
+     * @return the executor
+     */
+    static ExecutorService newSessionExecutor(){
+        try{
+            // looked up by name so this still compiles and runs on older JVMs
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        }
+        catch (ReflectiveOperationException | UnsupportedOperationException e){
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "connect4-session");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Lets players who have waited long enough play the computer, call before any player is enqueued
+     * @param ai pool that picks the computer's moves
+     * @param waitMillis milliseconds a player waits for another player first, 0 to always play the computer
+     */
+    public synchronized void setAiOpponents(Connect4AiPool ai, long waitMillis){
+        if(waitMillis < 0){
+            throw new IllegalArgumentException("wait cannot be negative");
+        }
+        if(aiTimer == null){
+            aiTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "connect4-ai-wait");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        this.aiWait = waitMillis;
+        this.ai = ai;
+    }
+
+    /**
+     * Hands a newly connected player to the matchmaker, returns straight away
+     * @param player socket of the player
+     */
+    public void enqueue(Socket player){
+        metrics.accepted();
+        executor.execute(() -> {
+            metrics.sessionThreadStarted();
+            try{
+                match(player);
+            }
+            finally{
+                metrics.sessionThreadEnded();
+            }
+        });
+    }
+
+    /**
+     *
+     * @return number of sessions being played
+     */
+    public int getActiveSessions(){
+        return running.size();
+    }
+
+    /**
+     *
+     * @return the sessions being played
+     */
+    public Collection<Runnable> getSessions(){
+        return running.values();
+    }
+
+    /**
+     *
+     * @return number of players waiting for someone to play against
+     */
+    public int getWaiting(){
+        synchronized(waiting){
+            return waiting.size();
+        }
+    }
+
+    /**
+     * Stops running sessions by closing their players, and closes every waiting player
+     */
+    public void shutdown(){
+        shutDown = true;
+        executor.shutdownNow();
+        synchronized(this){
+            if(aiTimer != null){
+                aiTimer.shutdownNow();
+            }
+        }
+        synchronized(waiting){
+            for(Connect4Connection c : waiting){
+                c.close();
+            }
+            waiting.clear();
+        }
+        // a session blocked reading from a player only ends once the player's socket is closed
+        for(Connect4Connection[] p : players.values()){
+            for(Connect4Connection c : p){
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Pairs a player with someone who is waiting and runs their session, or makes them wait as player 1
+     * @param player socket of the player
+     */
+    private void match(Socket socket){
+        String address = socket.getInetAddress().getHostAddress();
+        Connect4Connection player;
+        try{
+            player = Connect4Connection.accept(socket, metrics);
+        }
+        catch (IOException e){
+            log.accept("Player at " + address + " did not follow the protocol: " + e.getMessage());
+            close(socket);
+            return;
+        }
+        Connect4Connection partner;
+        while(true){
+            synchronized(waiting){
+                partner = waiting.poll();
+            }
+            if(partner == null || isConnected(partner.getSocket())){
+                break;
+            }
+            partner.close();
+        }
+        try{
+            if(partner == null){
+                // told their number before they can be paired, so nothing else is ever written to them first
+                player.sendPlayer(PLAYER1);
+                log.accept("Player 1 has joined, IP address " + address + (player.isFramed() ? "" : ", older client"));
+                Connect4AiPool pool = ai;
+                if(pool != null && aiWait == 0){
+                    if(pool.tryStartGame()){
+                        playComputer(player, pool);
+                        return;
+                    }
+                    log.accept("The computer players are saturated, player at " + address + " waits for a person");
+                }
+                synchronized(waiting){
+                    waiting.add(player);
+                }
+                if(pool != null){
+                    scheduleComputer(player, aiWait == 0 ? AI_RETRY : aiWait);
+                }
+                return;
+            }
+            player.sendPlayer(PLAYER2);
+            log.accept("Player 2 has joined, IP address " + address + (player.isFramed() ? "" : ", older client"));
+        }
+        catch (IOException e){
+            // they left before they could be told their number
+            player.close();
+            if(partner != null){
+                enqueueAgain(partner);
+            }
+            return;
+        }
+        play(sessions.apply(partner, player), partner, player, "");
+    }
+
+    /**
+     * Runs a session on this thread and closes its players once it ends
+     * @param session the session
+     * @param player1 connection to player 1
+     * @param player2 connection to player 2, or null for the computer
+     * @param kind added to the log message for the session starting
+     */
+    private void play(Runnable session, Connect4Connection player1, Connect4Connection player2, String kind){
+        int number = sessionNo.getAndIncrement();
+        running.put(number, session);
+        players.put(number, player2 == null ? new Connect4Connection[]{player1}
+                : new Connect4Connection[]{player1, player2});
+        log.accept("Start session " + number + kind);
+        metrics.sessionStarted();
+        try{
+            // registered before looking, so a shutdown either sees this session or is seen here
+            if(!shutDown){
+                session.run();
+            }
+        }
+        catch (UncheckedIOException e){
+            log.accept("Session " + number + " lost a player: " + e.getCause().getMessage());
+        }
+        finally{
+            metrics.sessionEnded();
+            running.remove(number);
+            players.remove(number);
+            player1.close();
+            if(player2 != null){
+                player2.close();
+            }
+            log.accept("Session " + number + " has ended");
+        }
+    }
+
+    /**
+     * Runs a session between a waiting player and the computer on this thread
+     * @param player connection to the player, already told they are player 1
+     * @param pool pool that admitted the game
+     */
+    private void playComputer(Connect4Connection player, Connect4AiPool pool){
+        try{
+            play(new Connect4Session(player, pool, metrics), player, null, " against the computer");
+        }
+        finally{
+            pool.gameEnded();
+        }
+    }
+
+    /**
+     * Offers a waiting player the computer after a while, unless someone has joined them by then
+     * @param player connection to the player, already told they are player 1
+     * @param delay milliseconds to wait
+     */
+    private void scheduleComputer(Connect4Connection player, long delay){
+        synchronized(this){
+            if(aiTimer == null || aiTimer.isShutdown()){
+                return;
+            }
+            aiTimer.schedule(() -> offerComputer(player), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs on the timer thread, starting a game against the computer for a player who is still waiting
+     * @param player connection to the player, already told they are player 1
+     */
+    private void offerComputer(Connect4Connection player){
+        synchronized(waiting){
+            if(!waiting.remove(player)){
+                // someone joined them
+                return;
+            }
+        }
+        if(!isConnected(player.getSocket())){
+            player.close();
+            return;
+        }
+        Connect4AiPool pool = ai;
+        if(!pool.tryStartGame()){
+            log.accept("The computer players are saturated, a waiting player keeps waiting for a person");
+            enqueueAgain(player);
+            scheduleComputer(player, AI_RETRY);
+            return;
+        }
+        try{
+            executor.execute(() -> {
+                metrics.sessionThreadStarted();
+                try{
+                    playComputer(player, pool);
+                }
+                finally{
+                    metrics.sessionThreadEnded();
+                }
+            });
+        }
+        catch (RejectedExecutionException e){
+            // the matchmaker was shut down
+            pool.gameEnded();
+            player.close();
+        }
+    }
+
+    /**
+     * Puts a player who was already told they are player 1 back at the front of the queue
+     * @param player socket of the player
+     */
+    private void enqueueAgain(Connect4Connection player){
+        synchronized(waiting){
+            waiting.addFirst(player);
+        }
+    }
+
+    /**
+     * Checks whether a waiting player is still there. A waiting player has nothing to send, so if anything can be
+     * read they have either left or are not following the protocol.
+     * @param player socket of the player
+     * @return true if the player is still connected
+     */
+    private static boolean isConnected(Socket player){
+        try{
+            player.setSoTimeout(1);
+            player.getInputStream().read();
+            return false;
+        }
+        catch (SocketTimeoutException e){
+            return true;
+        }
+        catch (IOException e){
+            return false;
+        }
+        finally{
+            try{
+                player.setSoTimeout(0);
+            }
+            catch (IOException e){
+                // closed, the session will find out
+            }
+        }
+    }
+
+    private void close(Socket s){
+        try{
+            s.close();
+        }
+        catch (IOException e){
+            log.accept("Could not close a player's socket: " + e.getMessage());
+        }
+    }
+}
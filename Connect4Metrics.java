@@ -0,0 +1,348 @@
+package core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Counters for the connect4 server: sessions, connections accepted, bytes and messages in each direction, threads
+ * busy with players, and two move latency histograms, both measured on the server so the players' thinking time is
+ * never part of them. The round trip is from a move arriving to its result having been written out to a player,
+ * recorded once for each player told, so it includes a result that waits for a slow socket. The processing time is
+ * from a move arriving to the result having been handed to both players' connections. Every counter can be updated
+ * from any thread without locking.
+ * <p>
+ * The counters can be watched through JMX under {@link #DOMAIN}, and as plain text from a small HTTP server that only
+ * listens on the loopback address, see {@link #startHttp(int)}. When the server hosts computer opponents their
+ * {@link Connect4AiPool} is shown alongside.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4Metrics implements Connect4MetricsMBean {
+
+    /** JMX domain the counters are registered under */
+    public static final String DOMAIN = "core";
+    /** Path the HTTP server shows the counters at */
+    public static final String PATH = "/metrics";
+    // seconds the accept rate is averaged over
+    private static final int RATE_SECONDS = 10;
+
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final LongAdder totalSessions = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final AtomicInteger sessionThreads = new AtomicInteger();
+    private final Connect4Histogram moveRoundTrip = new Connect4Histogram();
+    private final Connect4Histogram moveProcessing = new Connect4Histogram();
+    // connections accepted in each of the last few seconds, and which second each slot is counting
+    private final AtomicLongArray acceptCounts = new AtomicLongArray(RATE_SECONDS);
+    private final AtomicLongArray acceptSeconds = new AtomicLongArray(RATE_SECONDS);
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    // computer opponents, null if the server has none
+    private volatile Connect4AiPool ai;
+
+    /**
+     * Counts a connection accepted
+     */
+    public void accepted(){
+        accepted.increment();
+        long second = System.nanoTime() / 1000000000L;
+        int i = (int) (second % RATE_SECONDS);
+        long old = acceptSeconds.get(i);
+        // only the accept thread calls this, so the slot is never started by two threads at once
+        if(old != second && acceptSeconds.compareAndSet(i, old, second)){
+            acceptCounts.set(i, 0);
+        }
+        acceptCounts.incrementAndGet(i);
+    }
+
+    /**
+     * Counts a session starting
+     */
+    public void sessionStarted(){
+        activeSessions.incrementAndGet();
+        totalSessions.increment();
+    }
+
+    /**
+     * Counts a session ending, only for sessions that were counted as started
+     */
+    public void sessionEnded(){
+        activeSessions.decrementAndGet();
+    }
+
+    /**
+     * Counts a thread starting to work with players
+     */
+    public void sessionThreadStarted(){
+        sessionThreads.incrementAndGet();
+    }
+
+    /**
+     * Counts a thread done working with players
+     */
+    public void sessionThreadEnded(){
+        sessionThreads.decrementAndGet();
+    }
+
+    /**
+     * Counts bytes read from a player
+     * @param bytes number of bytes
+     */
+    public void received(int bytes){
+        bytesIn.add(bytes);
+    }
+
+    /**
+     * Counts bytes written to a player
+     * @param bytes number of bytes
+     */
+    public void sent(int bytes){
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * Counts a whole message read from a player
+     */
+    public void messageReceived(){
+        messagesIn.increment();
+    }
+
+    /**
+     * Counts a whole message written to a player
+     */
+    public void messageSent(){
+        messagesOut.increment();
+    }
+
+    /**
+     *
+     * @return time from a move arriving to its result having been written out to a player, for each player told
+     */
+    public Connect4Histogram getMoveRoundTrip(){
+        return moveRoundTrip;
+    }
+
+    /**
+     *
+     * @return time from a move arriving to both players having been sent the result
+     */
+    public Connect4Histogram getMoveProcessing(){
+        return moveProcessing;
+    }
+
+    /**
+     * Shows a pool of computer opponents with these counters, call before {@link #register()}
+     * @param ai the pool, or null for none
+     */
+    public void setAiPool(Connect4AiPool ai){
+        this.ai = ai;
+    }
+
+    /**
+     *
+     * @return the pool of computer opponents shown with these counters, or null if there is none
+     */
+    public Connect4AiPool getAiPool(){
+        return ai;
+    }
+
+    @Override
+    public int getActiveSessions(){
+        return activeSessions.get();
+    }
+
+    @Override
+    public long getTotalSessions(){
+        return totalSessions.sum();
+    }
+
+    @Override
+    public long getAccepted(){
+        return accepted.sum();
+    }
+
+    @Override
+    public double getAcceptRate(){
+        long second = System.nanoTime() / 1000000000L;
+        long n = 0;
+        for(int i = 0; i < RATE_SECONDS; i++){
+            // the current second is still being counted, so only whole seconds are used
+            long age = second - acceptSeconds.get(i);
+            if(age >= 1 && age <= RATE_SECONDS){
+                n += acceptCounts.get(i);
+            }
+        }
+        return (double) n / RATE_SECONDS;
+    }
+
+    @Override
+    public long getBytesIn(){
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut(){
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getMessagesIn(){
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut(){
+        return messagesOut.sum();
+    }
+
+    @Override
+    public int getSessionThreads(){
+        return sessionThreads.get();
+    }
+
+    @Override
+    public double getThreadsPerSession(){
+        int sessions = activeSessions.get();
+        return sessions == 0 ? 0 : (double) sessionThreads.get() / sessions;
+    }
+
+    @Override
+    public int getThreads(){
+        return threads.getThreadCount();
+    }
+
+    /**
+     * Registers the counters and both histograms with the platform MBean server, and the pool of computer opponents
+     * if there is one
+     * @throws JMException if they cannot be registered, for example because another server in this JVM already
+     * registered its own
+     */
+    public void register() throws JMException{
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, new ObjectName(DOMAIN + ":type=Connect4Metrics"));
+        server.registerMBean(moveRoundTrip, histogramName("moveRoundTrip"));
+        server.registerMBean(moveProcessing, histogramName("moveProcessing"));
+        Connect4AiPool pool = ai;
+        if(pool != null){
+            pool.register();
+        }
+    }
+
+    /**
+     * Removes what {@link #register()} registered
+     */
+    public void unregister(){
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try{
+            server.unregisterMBean(new ObjectName(DOMAIN + ":type=Connect4Metrics"));
+            server.unregisterMBean(histogramName("moveRoundTrip"));
+            server.unregisterMBean(histogramName("moveProcessing"));
+        }
+        catch (JMException e){
+            // was never registered
+        }
+        Connect4AiPool pool = ai;
+        if(pool != null){
+            pool.unregister();
+        }
+    }
+
+    private static ObjectName histogramName(String name) throws JMException{
+        return new ObjectName(DOMAIN + ":type=Connect4Metrics,name=" + name);
+    }
+
+    /**
+     * Starts an HTTP server on the loopback address that shows {@link #toText()} at {@link #PATH}
+     * @param port port to listen on, 0 to pick any free port
+     * @return the HTTP server, stop it when the connect4 server stops
+     * @throws IOException if the port cannot be opened
+     */
+    public HttpServer startHttp(int port) throws IOException{
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext(PATH, exchange -> {
+            byte[] body = toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream out = exchange.getResponseBody()){
+                out.write(body);
+            }
+        });
+        // requests are handled on the HTTP server's own thread, one at a time
+        http.start();
+        return http;
+    }
+
+    /**
+     * Writes every counter as a "name value" line, with the latency percentiles in microseconds
+     * @return the counters
+     */
+    public String toText(){
+        StringBuilder b = new StringBuilder();
+        line(b, "connect4_sessions_active", getActiveSessions());
+        line(b, "connect4_sessions_total", getTotalSessions());
+        line(b, "connect4_accepted_total", getAccepted());
+        line(b, "connect4_accept_rate", getAcceptRate());
+        line(b, "connect4_bytes_in_total", getBytesIn());
+        line(b, "connect4_bytes_out_total", getBytesOut());
+        line(b, "connect4_messages_in_total", getMessagesIn());
+        line(b, "connect4_messages_out_total", getMessagesOut());
+        line(b, "connect4_session_threads", getSessionThreads());
+        line(b, "connect4_threads_per_session", getThreadsPerSession());
+        line(b, "connect4_threads", getThreads());
+        histogram(b, "connect4_move_round_trip_micros", moveRoundTrip);
+        histogram(b, "connect4_move_processing_micros", moveProcessing);
+        Connect4AiPool pool = ai;
+        if(pool != null){
+            line(b, "connect4_ai_threads", pool.getThreads());
+            line(b, "connect4_ai_busy_threads", pool.getBusyThreads());
+            line(b, "connect4_ai_games", pool.getGames());
+            line(b, "connect4_ai_games_max", pool.getMaxGames());
+            line(b, "connect4_ai_games_total", pool.getTotalGames());
+            line(b, "connect4_ai_rejected_total", pool.getRejected());
+            line(b, "connect4_ai_moves_total", pool.getMoves());
+            line(b, "connect4_ai_queued", pool.getQueued());
+            line(b, "connect4_ai_average_wait_micros", pool.getAverageWait());
+            line(b, "connect4_ai_pondered_total", pool.getPondered());
+            line(b, "connect4_ai_ponder_hits_total", pool.getPonderHits());
+            line(b, "connect4_ai_saturated", pool.isSaturated() ? 1 : 0);
+            histogram(b, "connect4_ai_move_micros", pool.getMoveLatency());
+            histogram(b, "connect4_ai_queue_wait_micros", pool.getQueueWait());
+        }
+        return b.toString();
+    }
+
+    private static void histogram(StringBuilder b, String name, Connect4Histogram h){
+        line(b, name + "{quantile=\"0.5\"}", h.getP50());
+        line(b, name + "{quantile=\"0.9\"}", h.getP90());
+        line(b, name + "{quantile=\"0.99\"}", h.getP99());
+        line(b, name + "{quantile=\"0.999\"}", h.getP999());
+        line(b, name + "_max", h.getMax());
+        line(b, name + "_mean", h.getMean());
+        line(b, name + "_count", h.getCount());
+    }
+
+    private static void line(StringBuilder b, String name, long value){
+        b.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void line(StringBuilder b, String name, double value){
+        b.append(name).append(' ').append(String.format(Locale.ROOT, "%.3f", value)).append('\n');
+    }
+}
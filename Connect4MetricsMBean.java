@@ -0,0 +1,77 @@
+package core;
+
+/**
+ * What JMX shows of the server's {@link Connect4Metrics}. The move latency histograms are registered as MBeans of
+ * their own.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public interface Connect4MetricsMBean {
+
+    /**
+     *
+     * @return number of sessions being played
+     */
+    int getActiveSessions();
+
+    /**
+     *
+     * @return number of sessions started since the server started
+     */
+    long getTotalSessions();
+
+    /**
+     *
+     * @return number of connections accepted since the server started
+     */
+    long getAccepted();
+
+    /**
+     *
+     * @return connections accepted per second, averaged over the last few seconds
+     */
+    double getAcceptRate();
+
+    /**
+     *
+     * @return bytes read from players
+     */
+    long getBytesIn();
+
+    /**
+     *
+     * @return bytes written to players
+     */
+    long getBytesOut();
+
+    /**
+     *
+     * @return messages read from players
+     */
+    long getMessagesIn();
+
+    /**
+     *
+     * @return messages written to players
+     */
+    long getMessagesOut();
+
+    /**
+     *
+     * @return number of threads busy with players, a thread per player being matched or session being played for
+     * the blocking server and the event loops for the non blocking one
+     */
+    int getSessionThreads();
+
+    /**
+     *
+     * @return session threads for each active session
+     */
+    double getThreadsPerSession();
+
+    /**
+     *
+     * @return number of live platform threads in the JVM
+     */
+    int getThreads();
+}
@@ -0,0 +1,783 @@
+package core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Non blocking version of the connect4 server. Instead of a thread per session that waits on each player, a few event
+ * loop threads each watch many sockets with a {@link Selector} and move a session along whenever one of its players
+ * sends something. A session is a small state machine (waiting for player 2, player 1's turn, player 2's turn, over)
+ * and both of its players are handled by the same event loop, so a session is never touched by two threads at once.
+ * <p>
+ * It speaks the same protocol as {@link Connect4Server}, see {@link Connect4Protocol}. Whether a player speaks the
+ * framed protocol or is an older client is found out the same way: a player that has not said HELLO within the
+ * handshake timeout is an older client. Each event loop keeps its waiting handshakes in order of their deadlines and
+ * never sleeps past the earliest one.
+ * <p>
+ * With computer opponents set up, a player 1 nobody has joined after a while plays the computer instead, as long as
+ * the {@link Connect4AiPool} admits the game. The computer's moves are picked on the pool's threads and handed back
+ * to the session's event loop, so the loop never waits for a search.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4NioServer implements Connect4Constants {
+
+    /** Number of event loops used unless told otherwise */
+    public static final int DEFAULT_LOOPS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    // most bytes a player can send ahead of their turn before they are disconnected
+    private static final int INPUT_SIZE = 64;
+    // milliseconds before a player turned away by a saturated pool is offered the computer again
+    private static final long AI_RETRY = 1000;
+
+    private final int port;
+    private final Consumer<String> log;
+    private final Connect4Metrics metrics;
+    private final EventLoop[] loops;
+    private ServerSocketChannel server;
+    private Selector acceptSelector;
+    private Thread acceptThread;
+    // player 1 of the session being filled, guarded by this server's lock
+    private Session waiting;
+    private int sessionNo = 1;
+    private int nextLoop = 0;
+    // computer opponents and how long a player waits before playing one, ai is null for none
+    private Connect4AiPool ai;
+    private long aiWait;
+    // offers waiting players the computer once they have waited long enough
+    private ScheduledExecutorService aiTimer;
+
+    /**
+     * @param port port to listen on, 0 to pick any free port
+     * @param loops number of event loop threads, at least 1
+     * @param log where to send messages about players joining and sessions starting, called from the server threads
+     */
+    public Connect4NioServer(int port, int loops, Consumer<String> log){
+        this(port, loops, log, new Connect4Metrics());
+    }
+
+    /**
+     * @param port port to listen on, 0 to pick any free port
+     * @param loops number of event loop threads, at least 1
+     * @param log where to send messages about players joining and sessions starting, called from the server threads
+     * @param metrics counters for connections, sessions, traffic and move latency
+     */
+    public Connect4NioServer(int port, int loops, Consumer<String> log, Connect4Metrics metrics){
+        if(loops < 1){
+            throw new IllegalArgumentException("there must be at least one event loop");
+        }
+        this.port = port;
+        this.log = log;
+        this.metrics = metrics;
+        this.loops = new EventLoop[loops];
+    }
+
+    /**
+     * Lets players who have waited long enough play the computer, call before the server starts
+     * @param ai pool that picks the computer's moves
+     * @param waitMillis milliseconds a player waits for another player first, 0 to always play the computer
+     */
+    public synchronized void setAiOpponents(Connect4AiPool ai, long waitMillis){
+        if(waitMillis < 0){
+            throw new IllegalArgumentException("wait cannot be negative");
+        }
+        if(aiTimer == null){
+            aiTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "connect4-ai-wait");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        this.ai = ai;
+        this.aiWait = waitMillis;
+    }
+
+    /**
+     * Opens the server socket and starts the accept thread and the event loops
+     * @throws IOException if the port cannot be opened
+     */
+    public void start() throws IOException{
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        acceptSelector = Selector.open();
+        server.register(acceptSelector, SelectionKey.OP_ACCEPT);
+        for(int i = 0; i < loops.length; i++){
+            loops[i] = new EventLoop(Selector.open());
+            Thread t = new Thread(loops[i], "connect4-event-loop-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        acceptThread = new Thread(this::acceptLoop, "connect4-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        log.accept("Server started at socket " + getPort());
+    }
+
+    /**
+     *
+     * @return port the server is listening on, or the port it was asked for if it has not started
+     */
+    public int getPort(){
+        try{
+            return server == null ? port : ((InetSocketAddress) server.getLocalAddress()).getPort();
+        }
+        catch (IOException e){
+            return port;
+        }
+    }
+
+    /**
+     * Closes the server socket and every session
+     */
+    public void stop(){
+        try{
+            if(acceptSelector != null){
+                acceptSelector.close();
+            }
+            if(server != null){
+                server.close();
+            }
+        }
+        catch (IOException e){
+            log.accept("Could not close the server socket: " + e.getMessage());
+        }
+        for(EventLoop loop : loops){
+            if(loop != null){
+                loop.close();
+            }
+        }
+        synchronized(this){
+            if(aiTimer != null){
+                aiTimer.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Accepts players and pairs them into sessions in the order they arrive
+     */
+    private void acceptLoop(){
+        try{
+            log.accept("Waiting for players to join session " + sessionNo);
+            while(acceptSelector.isOpen()){
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+                SocketChannel channel;
+                while((channel = server.accept()) != null){
+                    channel.configureBlocking(false);
+                    metrics.accepted();
+                    accepted(channel);
+                }
+            }
+        }
+        catch (ClosedSelectorException e){
+            // the server was stopped
+        }
+        catch (IOException e){
+            if(server.isOpen()){
+                log.accept("Stopped accepting players: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Makes a new player player 1 of a new session, or player 2 of the session that is waiting
+     * @param channel socket of the new player
+     */
+    private synchronized void accepted(SocketChannel channel){
+        String address = channel.socket().getInetAddress().getHostAddress();
+        if(waiting != null && waiting.closed){
+            waiting = null;
+        }
+        if(waiting == null){
+            EventLoop loop = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+            waiting = new Session(sessionNo, loop);
+            Session s = waiting;
+            log.accept("Player 1 has joined session " + sessionNo + ", IP address " + address);
+            loop.execute(() -> s.join(channel));
+            if(ai != null){
+                if(aiWait == 0){
+                    offerComputer(s);
+                }
+                else{
+                    scheduleComputer(s, aiWait);
+                }
+            }
+        }
+        else{
+            Session s = waiting;
+            waiting = null;
+            log.accept("Player 2 has joined session " + sessionNo + ", IP address " + address);
+            log.accept("Start session " + sessionNo++);
+            s.loop.execute(() -> s.join(channel));
+            log.accept("Waiting for players to join session " + sessionNo);
+        }
+    }
+
+    /**
+     * Offers a waiting session the computer after a while, unless someone has joined it by then
+     * @param s the session
+     * @param delay milliseconds to wait
+     */
+    private synchronized void scheduleComputer(Session s, long delay){
+        if(!aiTimer.isShutdown()){
+            aiTimer.schedule(() -> offerComputer(s), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Makes the computer player 2 of a session if it is still waiting and the pool admits the game
+     * @param s the session
+     */
+    private synchronized void offerComputer(Session s){
+        if(waiting != s || s.closed){
+            return;
+        }
+        if(!ai.tryStartGame()){
+            log.accept("The computer players are saturated, session " + s.number + " keeps waiting for a person");
+            scheduleComputer(s, AI_RETRY);
+            return;
+        }
+        waiting = null;
+        Connect4AiPool pool = ai;
+        log.accept("Start session " + sessionNo++ + " against the computer");
+        s.loop.execute(() -> s.joinComputer(pool));
+        log.accept("Waiting for players to join session " + sessionNo);
+    }
+
+    /**
+     * Thread that watches the sockets of its sessions and runs tasks handed to it by the accept thread
+     */
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // players that have not said HELLO yet, oldest first so the first to time out is always at the front
+        private final ArrayDeque<Player> handshakes = new ArrayDeque<>();
+
+        EventLoop(Selector selector){
+            this.selector = selector;
+        }
+
+        /**
+         * Runs a task on this loop's thread
+         * @param task task to run
+         */
+        void execute(Runnable task){
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void close(){
+            try{
+                for(SelectionKey key : selector.keys()){
+                    key.channel().close();
+                }
+                selector.close();
+            }
+            catch (IOException | ClosedSelectorException e){
+                // already closed
+            }
+        }
+
+        @Override
+        public void run(){
+            // each event loop is a thread busy with players for as long as the server runs
+            metrics.sessionThreadStarted();
+            try{
+                while(selector.isOpen()){
+                    Player first = handshakes.peek();
+                    if(first == null){
+                        selector.select();
+                    }
+                    else{
+                        selector.select(Math.max(1, (first.deadline - System.nanoTime()) / 1000000));
+                    }
+                    Runnable task;
+                    while((task = tasks.poll()) != null){
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while(keys.hasNext()){
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Player p = (Player) key.attachment();
+                        if(!key.isValid()){
+                            continue;
+                        }
+                        if(key.isReadable()){
+                            p.read();
+                        }
+                        if(key.isValid() && key.isWritable()){
+                            p.flush();
+                        }
+                    }
+                    expireHandshakes();
+                }
+            }
+            catch (ClosedSelectorException e){
+                // the server was stopped
+            }
+            catch (IOException e){
+                log.accept("An event loop stopped: " + e.getMessage());
+            }
+            finally{
+                metrics.sessionThreadEnded();
+            }
+        }
+
+        /**
+         * Treats players that did not say HELLO in time as older clients
+         */
+        private void expireHandshakes(){
+            long now = System.nanoTime();
+            while(!handshakes.isEmpty() && handshakes.peek().deadline - now <= 0){
+                Player p = handshakes.poll();
+                if(p.handshaking && p.channel.isOpen()){
+                    // a busy loop can get here before it has read a HELLO that arrived in time
+                    p.read();
+                }
+                if(p.handshaking && p.channel.isOpen()){
+                    p.handshakeDone(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * One connected player, with what they have sent that has not been handled yet and what is still to be sent to
+     * them
+     */
+    private class Player {
+        private final Session session;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer in = ByteBuffer.allocate(INPUT_SIZE);
+        private final ByteBuffer out = ByteBuffer.allocate(64);
+        // still waiting to find out whether the player speaks the framed protocol
+        private boolean handshaking = true;
+        private final long deadline = System.nanoTime() + Connect4Protocol.HELLO_TIMEOUT * 1000000L;
+        private boolean framed;
+        // close the socket once everything has been sent
+        private boolean closing;
+        // when the move whose result is still being written out arrived, 0 if no result is waiting
+        private long resultFrom;
+
+        Player(Session session, SocketChannel channel, EventLoop loop) throws IOException{
+            this.session = session;
+            this.channel = channel;
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+            loop.handshakes.add(this);
+        }
+
+        /**
+         * Reads whatever the player has sent and lets the session handle it
+         */
+        void read(){
+            int n;
+            try{
+                n = channel.read(in);
+            }
+            catch (IOException e){
+                n = -1;
+            }
+            if(n == -1 || !in.hasRemaining()){
+                // the player left, or sent far more than a move
+                session.abort(this);
+                return;
+            }
+            metrics.received(n);
+            if(handshaking){
+                if(in.position() == 0){
+                    return;
+                }
+                if(in.get(0) != Connect4Protocol.HELLO){
+                    session.abort(this);
+                    return;
+                }
+                if(in.position() < Connect4Protocol.HELLO_SIZE){
+                    return;
+                }
+                in.flip();
+                try{
+                    Connect4Protocol.takeHello(in);
+                }
+                catch (ProtocolException e){
+                    session.abort(this);
+                    return;
+                }
+                in.compact();
+                metrics.messageReceived();
+                handshakeDone(true);
+                if(!channel.isOpen()){
+                    return;
+                }
+            }
+            session.process();
+        }
+
+        /**
+         * Called once it is known which protocol the player speaks
+         * @param framed true for the framed protocol, false for an older client
+         */
+        void handshakeDone(boolean framed){
+            handshaking = false;
+            this.framed = framed;
+            session.ready(this);
+        }
+
+        /**
+         * Takes a move out of what the player has sent
+         * @return column of the move, or {@link Connect4Protocol#INCOMPLETE} if a whole move has not arrived yet
+         * @throws ProtocolException if the player sent something other than a move
+         */
+        int takeMove() throws ProtocolException{
+            in.flip();
+            try{
+                int col = Connect4Protocol.takeMove(in, framed);
+                if(col != Connect4Protocol.INCOMPLETE){
+                    metrics.messageReceived();
+                }
+                return col;
+            }
+            finally{
+                in.compact();
+            }
+        }
+
+        void sendPlayer(int player){
+            int before = out.position();
+            Connect4Protocol.putPlayer(out, framed, player);
+            send(before);
+        }
+
+        void sendStart(){
+            int before = out.position();
+            Connect4Protocol.putStart(out, framed);
+            send(before);
+        }
+
+        /**
+         * Sends the result of a move, and records the round trip once it has all been written out
+         * @param received when the move arrived
+         */
+        void sendResult(int player, int mover, int status, int row, int col, long received){
+            int before = out.position();
+            Connect4Protocol.putResult(out, framed, player, mover, status, row, col);
+            resultFrom = received;
+            send(before);
+        }
+
+        void sendReject(int col){
+            int before = out.position();
+            Connect4Protocol.putReject(out, col);
+            send(before);
+        }
+
+        /**
+         * Counts the message just queued, if anything was queued, and sends it
+         * @param before where the output buffer ended before the message
+         */
+        private void send(int before){
+            if(out.position() > before){
+                metrics.messageSent();
+            }
+            flush();
+        }
+
+        /**
+         * Sends as much of the queued data as the socket will take, and asks to be told when it can take more
+         */
+        void flush(){
+            try{
+                out.flip();
+                metrics.sent(channel.write(out));
+                out.compact();
+            }
+            catch (IOException e){
+                session.abort(this);
+                return;
+            }
+            if(out.position() == 0 && resultFrom != 0){
+                metrics.getMoveRoundTrip().record(System.nanoTime() - resultFrom);
+                resultFrom = 0;
+            }
+            if(out.position() > 0){
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+            else if(closing){
+                close();
+            }
+            else{
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Closes the socket once everything queued has been sent
+         */
+        void finish(){
+            closing = true;
+            if(out.position() == 0){
+                close();
+            }
+        }
+
+        void close(){
+            try{
+                key.cancel();
+                channel.close();
+            }
+            catch (IOException e){
+                log.accept("Could not close a player's socket: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * State of one game between two players. Only ever used by the event loop the session belongs to.
+     */
+    private class Session {
+        private static final int WAITING = 0;
+        private static final int PLAYER1_TURN = 1;
+        private static final int PLAYER2_TURN = 2;
+        private static final int OVER = 3;
+
+        private final int number;
+        private final EventLoop loop;
+        private final Connect4 game = new Connect4();
+        private Player player1;
+        private Player player2;
+        // picks player 2's moves when player 2 is the computer, null when player 2 is a person
+        private Connect4AiPool computer;
+        // the computer is picking a move
+        private boolean thinking;
+        private int state = WAITING;
+        // set once the session is over, so the accept thread stops filling it
+        private volatile boolean closed;
+
+        Session(int number, EventLoop loop){
+            this.number = number;
+            this.loop = loop;
+        }
+
+        /**
+         * Adds a player to the session, player 1 first then player 2. The player is told their number once their
+         * handshake is done.
+         * @param channel socket of the player
+         */
+        void join(SocketChannel channel){
+            if(state == OVER){
+                // player 1 left before player 2 arrived, so player 2 waits for someone else
+                accepted(channel);
+                return;
+            }
+            try{
+                Player p = new Player(this, channel, loop);
+                if(player1 == null){
+                    player1 = p;
+                }
+                else{
+                    player2 = p;
+                }
+            }
+            catch (IOException e){
+                log.accept("Could not take on a player: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Tells a player their number once their handshake is done, and starts the game once both players know
+         * theirs
+         * @param p player whose handshake is done
+         */
+        void ready(Player p){
+            p.sendPlayer(p == player1 ? PLAYER1 : PLAYER2);
+            startIfReady();
+        }
+
+        /**
+         * Makes the computer player 2, the game starts once player 1 knows their number
+         * @param pool pool that admitted the game
+         */
+        void joinComputer(Connect4AiPool pool){
+            if(state == OVER){
+                // player 1 left in the meantime
+                pool.gameEnded();
+                return;
+            }
+            computer = pool;
+            startIfReady();
+        }
+
+        /**
+         * Starts the game once player 1 and a person who joined as player 2 know their numbers, or player 1 does and
+         * player 2 is the computer
+         */
+        private void startIfReady(){
+            boolean player2Ready = computer != null || (player2 != null && !player2.handshaking);
+            if(state == WAITING && player1 != null && !player1.handshaking && player2Ready){
+                // tell player 1 to start
+                player1.sendStart();
+                state = PLAYER1_TURN;
+                metrics.sessionStarted();
+                process();
+            }
+        }
+
+        /**
+         * Plays every move that has arrived from the player whose turn it is. Players only send the column they play
+         * in; the move is played on this session's board and both players are told where it landed.
+         */
+        void process(){
+            while(state == PLAYER1_TURN || state == PLAYER2_TURN){
+                if(state == PLAYER2_TURN && computer != null){
+                    askComputer();
+                    return;
+                }
+                Player mover = state == PLAYER1_TURN ? player1 : player2;
+                int moverNumber = state == PLAYER1_TURN ? PLAYER1 : PLAYER2;
+                int col;
+                try{
+                    col = mover.takeMove();
+                }
+                catch (ProtocolException e){
+                    abort(mover);
+                    return;
+                }
+                if(col == Connect4Protocol.INCOMPLETE){
+                    return;
+                }
+                long received = System.nanoTime();
+                int status = game.placeAndCheck(col+1, moverNumber == PLAYER1 ? PLAYER1_CHAR : PLAYER2_CHAR);
+                if(status == -1){
+                    if(mover.framed){
+                        mover.sendReject(col);
+                    }
+                    else{
+                        // an older client cannot be told, so the game cannot go on
+                        abort(mover);
+                    }
+                    continue;
+                }
+                moved(moverNumber, status, col, received);
+            }
+        }
+
+        /**
+         * Tells both players where a move landed and moves on to the next turn, or ends the game
+         * @param moverNumber number of the player who moved
+         * @param status status of the game after the move
+         * @param col column of the move starting at 0
+         * @param received when the move arrived
+         */
+        private void moved(int moverNumber, int status, int col, long received){
+            int row = game.getLastRow();
+            player1.sendResult(PLAYER1, moverNumber, status, row, col, received);
+            if(player2 != null){
+                player2.sendResult(PLAYER2, moverNumber, status, row, col, received);
+            }
+            metrics.getMoveProcessing().record(System.nanoTime() - received);
+            if(status != CONT){
+                end();
+            }
+            else{
+                state = state == PLAYER1_TURN ? PLAYER2_TURN : PLAYER1_TURN;
+            }
+        }
+
+        /**
+         * Asks the pool for the computer's move, which is played on this session's loop once it is picked
+         */
+        private void askComputer(){
+            if(thinking){
+                return;
+            }
+            thinking = true;
+            computer.move(game.getPosition(), PLAYER2_CHAR)
+                    .whenComplete((col, e) -> loop.execute(() -> computerMoved(col, e)));
+        }
+
+        /**
+         * Plays the move the computer picked, on this session's loop
+         * @param col column of the move starting at 0, null if no move was picked
+         * @param e why no move was picked, null if one was
+         */
+        private void computerMoved(Integer col, Throwable e){
+            thinking = false;
+            if(state != PLAYER2_TURN){
+                // player 1 left while the computer was thinking
+                return;
+            }
+            if(e != null){
+                log.accept("The computer could not move in session " + number);
+                abort(player1);
+                return;
+            }
+            long received = System.nanoTime();
+            moved(PLAYER2, game.placeAndCheck(col + 1, PLAYER2_CHAR), col, received);
+            process();
+        }
+
+        private void end(){
+            metrics.sessionEnded();
+            releaseComputer();
+            state = OVER;
+            closed = true;
+            player1.finish();
+            if(player2 != null){
+                player2.finish();
+            }
+        }
+
+        /**
+         * Gives the computer's place back to the pool, once the session is over
+         */
+        private void releaseComputer(){
+            if(computer != null){
+                computer.gameEnded();
+            }
+        }
+
+        /**
+         * Ends the session when a player leaves or misbehaves
+         * @param p player that caused it
+         */
+        void abort(Player p){
+            if(state != OVER){
+                log.accept("A player left session " + number);
+            }
+            if(state == PLAYER1_TURN || state == PLAYER2_TURN){
+                metrics.sessionEnded();
+            }
+            if(state != OVER){
+                releaseComputer();
+            }
+            state = OVER;
+            closed = true;
+            p.close();
+            Player other = p == player1 ? player2 : player1;
+            if(other != null){
+                other.finish();
+            }
+        }
+    }
+}
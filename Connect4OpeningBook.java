@@ -0,0 +1,168 @@
+package core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Precomputed best moves for the start of the game, read from a binary file made by {@link Connect4BookGenerator}.
+ * The file is memory mapped, so looking up a move is a binary search over the file without reading it onto the heap.
+ * A position and its mirror image share one entry.
+ * <p>
+ * File layout, big endian: a 16 byte header (magic, version, number of entries, plies covered) followed by 16 byte
+ * entries sorted by key (key as a long, score as an int, best column as a byte, search depth as a byte, 2 unused bytes)
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4OpeningBook implements Connect4Constants {
+
+    static final int MAGIC = 0x43344248;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 16;
+
+    private final ByteBuffer entries;
+    private final int count;
+    private final int plies;
+
+    private Connect4OpeningBook(ByteBuffer buffer){
+        if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION){
+            throw new IllegalArgumentException("not a connect4 opening book");
+        }
+        count = buffer.getInt(8);
+        plies = buffer.getInt(12);
+        if(buffer.capacity() < HEADER_SIZE + (long) count * ENTRY_SIZE){
+            throw new IllegalArgumentException("opening book is truncated");
+        }
+        entries = buffer;
+    }
+
+    /**
+     * Maps a book file into memory. The file stays mapped until the book is garbage collected.
+     * @param file book made by {@link Connect4BookGenerator}
+     * @return the book
+     * @throws IOException if the file cannot be read
+     */
+    public static Connect4OpeningBook open(Path file) throws IOException{
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Connect4OpeningBook(buffer);
+        }
+    }
+
+    /**
+     *
+     * @return number of positions in the book
+     */
+    public int size(){
+        return count;
+    }
+
+    /**
+     *
+     * @return number of moves from the start of the game that the book covers
+     */
+    public int getPlies(){
+        return plies;
+    }
+
+    /**
+     * Looks up the best move for a position
+     * @param pos position to look up
+     * @param piece Identifier of the player to move "X" or "O"
+     * @return best column starting at 0, or -1 if the position is not in the book
+     */
+    public int lookup(Connect4Position pos, char piece){
+        return lookup(pos, piece, 0);
+    }
+
+    /**
+     * Looks up the best move for a position, only if the generator searched it at least as deep as asked. A position
+     * searched to the end of the game, or to a forced win or loss, counts as deep enough for any depth.
+     * @param pos position to look up
+     * @param piece Identifier of the player to move "X" or "O"
+     * @param minDepth fewest moves the position must have been searched ahead
+     * @return best column starting at 0, or -1 if the position is not in the book or was not searched deep enough
+     */
+    public int lookup(Connect4Position pos, char piece, int minDepth){
+        if(pos.getMoves() >= plies){
+            return -1;
+        }
+        long key = key(pos.getMask(piece), pos.getOccupied());
+        long mirrored = mirror(key);
+        int i = find(Math.min(key, mirrored));
+        if(i < 0){
+            return -1;
+        }
+        int depth = entries.get(HEADER_SIZE + i * ENTRY_SIZE + 13) & 0xFF;
+        if(depth < minDepth && depth < ROWS * COLS - pos.getMoves()){
+            return -1;
+        }
+        int move = entries.get(HEADER_SIZE + i * ENTRY_SIZE + 12);
+        return key <= mirrored ? move : COLS - 1 - move;
+    }
+
+    /**
+     * Looks up the score the generator found for a position
+     * @param pos position to look up
+     * @param piece Identifier of the player to move "X" or "O"
+     * @return score from the point of view of the player to move, or null if the position is not in the book
+     */
+    public Integer score(Connect4Position pos, char piece){
+        long key = key(pos.getMask(piece), pos.getOccupied());
+        int i = find(Math.min(key, mirror(key)));
+        return i < 0 ? null : entries.getInt(HEADER_SIZE + i * ENTRY_SIZE + 8);
+    }
+
+    /**
+     * Binary search for a key
+     * @param key key to look for
+     * @return index of the entry, or -1 if it is not there
+     */
+    private int find(long key){
+        int lo = 0;
+        int hi = count - 1;
+        while(lo <= hi){
+            int mid = (lo + hi) >>> 1;
+            long k = entries.getLong(HEADER_SIZE + mid * ENTRY_SIZE);
+            if(k < key){
+                lo = mid + 1;
+            }
+            else if(k > key){
+                hi = mid - 1;
+            }
+            else{
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Key that is different for every position and player to move. Adding the occupied cells to the pieces of the
+     * player to move never carries from one column into the next, so the key can be mirrored column by column.
+     * @param cur pieces of the player to move
+     * @param mask every occupied cell
+     * @return key of the position
+     */
+    static long key(long cur, long mask){
+        return cur + mask + Connect4Position.BOTTOM;
+    }
+
+    /**
+     * Flips a key left to right
+     * @param key key of a position
+     * @return key of the mirror image of the position
+     */
+    static long mirror(long key){
+        long m = 0;
+        long col = (1L << Connect4Position.H1) - 1;
+        for(int c = 0; c < COLS; c++){
+            m |= ((key >>> (c * Connect4Position.H1)) & col) << ((COLS - 1 - c) * Connect4Position.H1);
+        }
+        return m;
+    }
+}
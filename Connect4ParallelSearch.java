@@ -0,0 +1,186 @@
+package core;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a {@link Connect4Search} on several cores at once. Every worker searches the same position and they all share
+ * one transposition table, so what one worker finds is picked up by the others (this is known as lazy SMP). The main
+ * worker runs on the calling thread and decides the move; the helpers run on a fixed set of daemon threads and are
+ * stopped as soon as the main worker is done. With one worker this is exactly the single threaded search.
+ * The table needs no locks since each entry stores its key xor'd with its data, so an entry that was torn by two
+ * threads writing at once just looks like a miss.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4ParallelSearch {
+
+    private final Connect4Search main;
+    private final Connect4Search[] helpers;
+    private final ExecutorService pool;
+    private final Future<?>[] running;
+
+    /**
+     * Creates a parallel search around an existing search, sharing its depth and transposition table
+     * @param main search that decides the move, run on the calling thread
+     * @param workers total number of workers including the main one, at least 1
+     */
+    public Connect4ParallelSearch(Connect4Search main, int workers){
+        if(workers < 1){
+            throw new IllegalArgumentException("there must be at least one worker");
+        }
+        this.main = main;
+        helpers = new Connect4Search[workers - 1];
+        running = new Future<?>[workers - 1];
+        for(int i = 0; i < helpers.length; i++){
+            helpers[i] = new Connect4Search(main.getDepth(), main.getTable());
+            helpers[i].setHelperId(i + 1);
+        }
+        pool = helpers.length == 0 ? null : Executors.newFixedThreadPool(helpers.length, r -> {
+            Thread t = new Thread(r, "connect4-search-helper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     *
+     * @return number of workers including the main one
+     */
+    public int getWorkers(){
+        return helpers.length + 1;
+    }
+
+    /**
+     *
+     * @return the search that decides the move, which reports the depth reached and score
+     */
+    public Connect4Search getMain(){
+        return main;
+    }
+
+    /**
+     * Searches a position on every worker to the depth set on the main search
+     * @param pos position to search
+     * @param piece Identifier of the player to move "X" or "O"
+     * @return best column to play starting at 0, or -1 if the board is full
+     */
+    public int search(Connect4Position pos, char piece){
+        if(helpers.length == 0){
+            return main.search(pos, piece);
+        }
+        startHelpers(pos, piece, main.getDepth() + 1);
+        try{
+            return main.iterate(pos, piece, main.getDepth(), 0);
+        }
+        finally{
+            stopHelpers();
+        }
+    }
+
+    /**
+     * Searches a position on every worker until the time runs out,
+     * see {@link Connect4Search#searchTimed(Connect4Position, char, long)}
+     * @param pos position to search
+     * @param piece Identifier of the player to move "X" or "O"
+     * @param millis time allowed for the search in milliseconds
+     * @return best column to play starting at 0, or -1 if the board is full
+     */
+    public int searchTimed(Connect4Position pos, char piece, long millis){
+        if(helpers.length == 0){
+            return main.searchTimed(pos, piece, millis);
+        }
+        int maxDepth = Connect4Constants.ROWS * Connect4Constants.COLS - pos.getMoves();
+        startHelpers(pos, piece, maxDepth);
+        try{
+            return main.iterate(pos, piece, maxDepth, millis);
+        }
+        finally{
+            stopHelpers();
+        }
+    }
+
+    /**
+     * Stops a search running on another thread as soon as possible
+     */
+    public void stop(){
+        main.stop();
+        for(Connect4Search h : helpers){
+            h.stop();
+        }
+    }
+
+    /**
+     *
+     * @return number of positions visited by every worker in the last search
+     */
+    public long getNodes(){
+        long n = main.getNodes();
+        for(Connect4Search h : helpers){
+            n += h.getNodes();
+        }
+        return n;
+    }
+
+    /**
+     * Can be called from any thread while a search runs
+     * @return positions visited so far by every worker, see {@link Connect4Search#getProgressNodes()}
+     */
+    public long getProgressNodes(){
+        long n = main.getProgressNodes();
+        for(Connect4Search h : helpers){
+            n += h.getProgressNodes();
+        }
+        return n;
+    }
+
+    /**
+     * Stops the helper threads, the search cannot be used after this
+     */
+    public void shutdown(){
+        if(pool != null){
+            pool.shutdownNow();
+        }
+    }
+
+    private void startHelpers(Connect4Position pos, char piece, int maxDepth){
+        main.clearStop();
+        for(int i = 0; i < helpers.length; i++){
+            Connect4Search h = helpers[i];
+            h.setDepth(main.getDepth());
+            h.clearStop();
+            // each helper gets its own copy so nothing is shared but the table
+            Connect4Position copy = new Connect4Position(pos);
+            running[i] = pool.submit(() -> h.iterate(copy, piece, maxDepth, 0));
+        }
+    }
+
+    private void stopHelpers(){
+        for(Connect4Search h : helpers){
+            h.stop();
+        }
+        // wait for every helper so the next search does not start while any are still running, even if this thread
+        // is interrupted, which is passed on once they are all done
+        boolean interrupted = false;
+        for(Future<?> f : running){
+            while(true){
+                try{
+                    f.get();
+                    break;
+                }
+                catch (InterruptedException e){
+                    interrupted = true;
+                }
+                catch (ExecutionException e){
+                    e.printStackTrace();
+                    break;
+                }
+            }
+        }
+        if(interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
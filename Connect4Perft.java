@@ -0,0 +1,373 @@
+package core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts every way a game can go on from a position, to a given number of moves. For each move number it reports how
+ * many positions can be reached and how many of them end the game with a win for either player or a draw. A game
+ * that has ended is not played any further.
+ * <p>
+ * The counts are a check for any change to how moves are placed or wins are found: the fast count uses the bitboard
+ * and only checks the lines through the last piece, and {@link #countReference(Connect4Position, char, int)} drops
+ * every piece into a plain char[][] board and scans the whole board for four in a row. The reference shares no code
+ * with the bitboard past copying the starting position, so both giving the same numbers checks the bitboard. The top of the tree is split into fork/join tasks so the count uses every core, which also makes
+ * it a measure of raw move generation speed.
+ * <p>
+ * Usage: java core.Connect4Perft depth [moves so far, columns starting at 1] [check]
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4Perft implements Connect4Constants {
+
+    /** Moves from the start of the count that are split into separate tasks */
+    static final int SPLIT_PLIES = 3;
+
+    /**
+     * Counts for each move number, index 0 being the position the count started from
+     */
+    public static class Result {
+        /** Positions reached after each number of moves */
+        public final long[] nodes;
+        /** Positions where player 1 has just won */
+        public final long[] player1Wins;
+        /** Positions where player 2 has just won */
+        public final long[] player2Wins;
+        /** Positions where the board has just filled up with no winner */
+        public final long[] draws;
+
+        /**
+         * @param depth number of moves counted
+         */
+        Result(int depth){
+            nodes = new long[depth + 1];
+            player1Wins = new long[depth + 1];
+            player2Wins = new long[depth + 1];
+            draws = new long[depth + 1];
+        }
+
+        /**
+         * Adds another result counted from deeper in the tree
+         * @param other counts to add
+         * @param offset number of moves between where this count and the other count started
+         */
+        void add(Result other, int offset){
+            for(int d = 0; d < other.nodes.length && d + offset < nodes.length; d++){
+                nodes[d + offset] += other.nodes[d];
+                player1Wins[d + offset] += other.player1Wins[d];
+                player2Wins[d + offset] += other.player2Wins[d];
+                draws[d + offset] += other.draws[d];
+            }
+        }
+
+        /**
+         *
+         * @return positions counted at every move number
+         */
+        public long total(){
+            long n = 0;
+            for(long x : nodes){
+                n += x;
+            }
+            return n;
+        }
+
+        /**
+         * Compares two results
+         * @param other result to compare with
+         * @return true if every count is the same
+         */
+        public boolean matches(Result other){
+            return Arrays.equals(nodes, other.nodes)
+                    && Arrays.equals(player1Wins, other.player1Wins)
+                    && Arrays.equals(player2Wins, other.player2Wins)
+                    && Arrays.equals(draws, other.draws);
+        }
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a counter that uses the common fork/join pool
+     */
+    public Connect4Perft(){
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool pool to run the count on
+     */
+    public Connect4Perft(ForkJoinPool pool){
+        this.pool = pool;
+    }
+
+    /**
+     * Counts every continuation of a position in parallel
+     * @param pos position to start from, nobody can have won yet
+     * @param piece Identifier of the player to move "X" or "O"
+     * @param depth number of moves to count, at least 0
+     * @return the counts for each move number
+     */
+    public Result count(Connect4Position pos, char piece, int depth){
+        if(depth < 0){
+            throw new IllegalArgumentException("depth cannot be negative");
+        }
+        return pool.invoke(new CountTask(new Connect4Position(pos), piece, depth, 0));
+    }
+
+    /**
+     * Counts every continuation of a position on one thread by dropping each piece into a char[][] board and
+     * checking the whole board for a winner. This is slow and only meant to check {@link #count}.
+     * @param pos position to start from, nobody can have won yet
+     * @param piece Identifier of the player to move "X" or "O"
+     * @param depth number of moves to count, at least 0
+     * @return the counts for each move number
+     */
+    public static Result countReference(Connect4Position pos, char piece, int depth){
+        Result result = new Result(depth);
+        result.nodes[0] = 1;
+        reference(pos.toArray(), piece, depth, 1, result);
+        return result;
+    }
+
+    /**
+     * Counts the moves from a board, placing each piece and taking it back again
+     * @param board the board, row 0 at the top and ' ' for an empty cell
+     * @param piece Identifier of the player to move "X" or "O"
+     * @param depth number of moves to count
+     * @param ply number of the move being counted
+     * @param result where the counts go
+     */
+    private static void reference(char[][] board, char piece, int depth, int ply, Result result){
+        if(ply > depth){
+            return;
+        }
+        char next = piece == PLAYER1_CHAR ? PLAYER2_CHAR : PLAYER1_CHAR;
+        for(int c = 0; c < COLS; c++){
+            int r = ROWS - 1;
+            while(r >= 0 && board[r][c] != ' '){
+                r--;
+            }
+            if(r < 0){
+                continue;
+            }
+            board[r][c] = piece;
+            result.nodes[ply]++;
+            if(boardWon(board, piece)){
+                if(piece == PLAYER1_CHAR){
+                    result.player1Wins[ply]++;
+                }
+                else{
+                    result.player2Wins[ply]++;
+                }
+            }
+            else if(boardFull(board)){
+                result.draws[ply]++;
+            }
+            else{
+                reference(board, next, depth, ply + 1, result);
+            }
+            board[r][c] = ' ';
+        }
+    }
+
+    /**
+     * Scans every cell of a board for the start of four in a row going right, down, down right or down left
+     * @param board the board
+     * @param piece Identifier of the player "X" or "O"
+     * @return true if the player has four in a row anywhere
+     */
+    private static boolean boardWon(char[][] board, char piece){
+        int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        for(int r = 0; r < ROWS; r++){
+            for(int c = 0; c < COLS; c++){
+                for(int[] d : directions){
+                    int n = 0;
+                    while(n < 4){
+                        int rr = r + n * d[0];
+                        int cc = c + n * d[1];
+                        if(rr < 0 || rr >= ROWS || cc < 0 || cc >= COLS || board[rr][cc] != piece){
+                            break;
+                        }
+                        n++;
+                    }
+                    if(n == 4){
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean boardFull(char[][] board){
+        for(int c = 0; c < COLS; c++){
+            if(board[0][c] == ' '){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts one subtree, splitting it into a task per move while it is near the top of the tree
+     */
+    private static class CountTask extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+        private final Connect4Position pos;
+        private final char piece;
+        private final int depth;
+        private final int ply;
+
+        /**
+         * @param pos position to count from, owned by this task
+         * @param piece Identifier of the player to move "X" or "O"
+         * @param depth moves left to count
+         * @param ply moves since the start of the whole count
+         */
+        CountTask(Connect4Position pos, char piece, int depth, int ply){
+            this.pos = pos;
+            this.piece = piece;
+            this.depth = depth;
+            this.ply = ply;
+        }
+
+        @Override
+        protected Result compute(){
+            Result result = new Result(depth);
+            result.nodes[0] = 1;
+            if(depth == 0){
+                return result;
+            }
+            char next = piece == PLAYER1_CHAR ? PLAYER2_CHAR : PLAYER1_CHAR;
+            if(ply >= SPLIT_PLIES || depth <= 2){
+                Connect4Position[] stack = new Connect4Position[depth + 1];
+                for(int i = 0; i <= depth; i++){
+                    stack[i] = new Connect4Position();
+                }
+                stack[0].set(pos);
+                countMoves(stack, piece, depth, 1, result);
+                return result;
+            }
+            CountTask[] children = new CountTask[COLS];
+            for(int c = 0; c < COLS; c++){
+                if(!pos.canPlay(c)){
+                    continue;
+                }
+                Connect4Position child = new Connect4Position(pos);
+                int row = child.place(c, piece);
+                if(tally(child, row, c, piece, 1, result)){
+                    result.nodes[1]++;
+                }
+                else{
+                    // the child counts itself as its own first node
+                    children[c] = new CountTask(child, next, depth - 1, ply + 1);
+                    children[c].fork();
+                }
+            }
+            for(int c = COLS - 1; c >= 0; c--){
+                if(children[c] != null){
+                    result.add(children[c].join(), 1);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Counts the moves from one position on the current thread
+     * @param stack one scratch position for each move number, the position to count from is at ply - 1
+     * @param piece Identifier of the player to move "X" or "O"
+     * @param depth number of moves to count
+     * @param ply moves since the start of this count
+     * @param result counts to add to
+     */
+    private static void countMoves(Connect4Position[] stack, char piece, int depth, int ply, Result result){
+        Connect4Position parent = stack[ply - 1];
+        Connect4Position child = stack[ply];
+        char next = piece == PLAYER1_CHAR ? PLAYER2_CHAR : PLAYER1_CHAR;
+        for(int c = 0; c < COLS; c++){
+            if(!parent.canPlay(c)){
+                continue;
+            }
+            child.set(parent);
+            int row = child.place(c, piece);
+            result.nodes[ply]++;
+            if(!tally(child, row, c, piece, ply, result) && ply < depth){
+                countMoves(stack, next, depth, ply + 1, result);
+            }
+        }
+    }
+
+    /**
+     * Counts a win or a draw if the last move ended the game
+     * @param pos position after the move
+     * @param row row the piece landed in
+     * @param col column the piece was played in
+     * @param piece Identifier of the player who moved "X" or "O"
+     * @param ply moves since the start of the count
+     * @param result counts to add to
+     * @return true if the game is over
+     */
+    private static boolean tally(Connect4Position pos, int row, int col, char piece, int ply, Result result){
+        if(pos.connectsFour(row, col)){
+            if(piece == PLAYER1_CHAR){
+                result.player1Wins[ply]++;
+            }
+            else{
+                result.player2Wins[ply]++;
+            }
+            return true;
+        }
+        if(pos.isFull()){
+            result.draws[ply]++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts from the command line and prints a table of the counts and the speed
+     * @param args number of moves to count, then optionally the moves played so far as columns starting at 1 and
+     *             "check" to compare with the reference count
+     */
+    public static void main(String[] args){
+        if(args.length < 1){
+            System.out.println("Usage: java core.Connect4Perft depth [moves so far] [check]");
+            return;
+        }
+        int depth = Integer.parseInt(args[0]);
+        String moves = args.length > 1 && !args[1].equals("check") ? args[1] : "";
+        boolean check = args[args.length - 1].equals("check");
+        Connect4Position pos = new Connect4Position();
+        char piece = PLAYER1_CHAR;
+        for(char ch : moves.toCharArray()){
+            int col = ch - '1';
+            if(col < 0 || col >= COLS || !pos.canPlay(col)){
+                throw new IllegalArgumentException("illegal move " + ch);
+            }
+            int row = pos.place(col, piece);
+            if(pos.connectsFour(row, col)){
+                throw new IllegalArgumentException("the game is already over");
+            }
+            piece = piece == PLAYER1_CHAR ? PLAYER2_CHAR : PLAYER1_CHAR;
+        }
+
+        Connect4Perft perft = new Connect4Perft();
+        long start = System.nanoTime();
+        Result result = perft.count(pos, piece, depth);
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%5s %16s %14s %14s %12s%n", "depth", "nodes", "X wins", "O wins", "draws");
+        for(int d = 1; d <= depth; d++){
+            System.out.printf("%5d %16d %14d %14d %12d%n", d, result.nodes[d], result.player1Wins[d],
+                    result.player2Wins[d], result.draws[d]);
+        }
+        System.out.printf("%d nodes in %.3fs, %.0f nodes/s on %d threads%n", result.total(), elapsed / 1e9,
+                result.total() / (elapsed / 1e9), perft.pool.getParallelism());
+        if(check){
+            boolean ok = countReference(pos, piece, depth).matches(result);
+            System.out.println(ok ? "reference count matches" : "reference count DOES NOT match");
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package core;
+
+/**
+ * Bitboard representation of a connect4 position. Each player's pieces are kept in a 64 bit mask where every column
+ * uses 7 bits, the 6 rows plus one empty bit on top so that lines cannot wrap from one column into the next. Bit 0
+ * of a column is the bottom row. This lets a piece be placed in constant time and a connect 4 be found with a few
+ * shifts and masks instead of walking the whole board.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4Position implements Connect4Constants {
+
+    /** Number of bits used by each column, one more than the number of rows */
+    static final int H1 = ROWS + 1;
+    /** Mask with the bottom cell of every column set */
+    static final long BOTTOM = bottomMask();
+    /** Mask with every playable cell of the board set */
+    static final long BOARD = BOTTOM * ((1L << ROWS) - 1);
+
+    private long p1;
+    private long p2;
+    // index of the next free bit in each column
+    private final int[] height = new int[COLS];
+    private int moves;
+
+    /**
+     * Creates an empty position
+     */
+    public Connect4Position(){
+        for(int i = 0; i < COLS; i++){
+            height[i] = i * H1;
+        }
+    }
+
+    /**
+     * Creates a copy of another position
+     * @param other position to copy
+     */
+    public Connect4Position(Connect4Position other){
+        set(other);
+    }
+
+    /**
+     * Makes this position a copy of another one, without creating any objects
+     * @param other position to copy
+     */
+    public void set(Connect4Position other){
+        p1 = other.p1;
+        p2 = other.p2;
+        moves = other.moves;
+        System.arraycopy(other.height, 0, height, 0, COLS);
+    }
+
+    /**
+     * Builds a position from the older 2D char representation of the board. Empty cells can either be a space or 0.
+     * @param board board with row 0 being the top of the board
+     * @return the equivalent bitboard position
+     */
+    public static Connect4Position fromArray(char[][] board){
+        Connect4Position pos = new Connect4Position();
+        for(int c = 0; c < COLS; c++){
+            for(int r = 0; r < ROWS; r++){
+                char x = board[ROWS - 1 - r][c];
+                if(x == 0 || x == ' '){
+                    continue;
+                }
+                long bit = 1L << (c * H1 + r);
+                if(x == PLAYER1_CHAR){
+                    pos.p1 |= bit;
+                }
+                else{
+                    pos.p2 |= bit;
+                }
+                pos.height[c] = c * H1 + r + 1;
+                pos.moves++;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Converts the position back into the older 2D char representation, empty cells are filled with spaces
+     * @return board with row 0 being the top of the board
+     */
+    public char[][] toArray(){
+        char[][] board = new char[ROWS][COLS];
+        for(int r = 0; r < ROWS; r++){
+            for(int c = 0; c < COLS; c++){
+                char x = get(r, c);
+                board[r][c] = x == 0 ? ' ' : x;
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Places a piece on top of the column
+     * @param col column number, starting at 0
+     * @param piece Identifier of the player "X" or "O"
+     * @return the row the piece landed in (0 being the top), or -1 if the move cannot be made
+     */
+    public int place(int col, char piece){
+        if(!canPlay(col)){
+            return -1;
+        }
+        long bit = 1L << height[col]++;
+        if(piece == PLAYER1_CHAR){
+            p1 |= bit;
+        }
+        else{
+            p2 |= bit;
+        }
+        moves++;
+        return ROWS - height[col] + col * H1;
+    }
+
+    /**
+     *
+     * @param col column number, starting at 0
+     * @return true if the column is on the board and is not full
+     */
+    public boolean canPlay(int col){
+        return col >= 0 && col < COLS && height[col] < col * H1 + ROWS;
+    }
+
+    /**
+     * Gets the piece in a cell
+     * @param row row number, 0 being the top
+     * @param col column number, starting at 0
+     * @return "X" or "O", or 0 if the cell is empty
+     */
+    public char get(int row, int col){
+        long bit = 1L << (col * H1 + ROWS - 1 - row);
+        if((p1 & bit) != 0){
+            return PLAYER1_CHAR;
+        }
+        if((p2 & bit) != 0){
+            return PLAYER2_CHAR;
+        }
+        return 0;
+    }
+
+    /**
+     *
+     * @param piece Identifier of the player "X" or "O"
+     * @return True if that player has a connect4
+     */
+    public boolean fourInARow(char piece){
+        return isWin(getMask(piece));
+    }
+
+    /**
+     * Checks a mask of pieces for four in a row in any direction
+     * @param b pieces of one player
+     * @return True if a connect4 is found
+     */
+    public static boolean isWin(long b){
+        // horizontal
+        long m = b & (b >> H1);
+        if((m & (m >> 2 * H1)) != 0){
+            return true;
+        }
+        // diagonal going down to the right
+        m = b & (b >> (H1 - 1));
+        if((m & (m >> 2 * (H1 - 1))) != 0){
+            return true;
+        }
+        // diagonal going up to the right
+        m = b & (b >> (H1 + 1));
+        if((m & (m >> 2 * (H1 + 1))) != 0){
+            return true;
+        }
+        // vertical
+        m = b & (b >> 1);
+        return (m & (m >> 2)) != 0;
+    }
+
+    /**
+     * Checks only the four lines that pass through one cell, which is all that needs to be checked after a move
+     * since any new connect4 has to use the piece that was just played
+     * @param row row number, 0 being the top
+     * @param col column number, starting at 0
+     * @return True if the piece in that cell is part of a connect4
+     */
+    public boolean connectsFour(int row, int col){
+        int bit = col * H1 + ROWS - 1 - row;
+        long b = (p1 & (1L << bit)) != 0 ? p1 : p2;
+        return line(b, bit, 1) || line(b, bit, H1) || line(b, bit, H1 - 1) || line(b, bit, H1 + 1);
+    }
+
+    /**
+     * Counts the pieces next to a bit in both directions of one line, stopping after 3 either way
+     * @param b pieces of one player
+     * @param bit bit index of the piece that was played
+     * @param step distance between bits on the line
+     * @return True if there are at least 4 in a row
+     */
+    private static boolean line(long b, int bit, int step){
+        int consec = 1;
+        for(int i = bit + step, n = 0; n < 3 && i < COLS * H1 && (b & (1L << i)) != 0; i += step, n++){
+            consec++;
+        }
+        for(int i = bit - step, n = 0; n < 3 && i >= 0 && (b & (1L << i)) != 0; i -= step, n++){
+            consec++;
+        }
+        return consec >= 4;
+    }
+
+    /**
+     *
+     * @return True if every cell on the board has been played
+     */
+    public boolean isFull(){
+        return moves == ROWS * COLS;
+    }
+
+    /**
+     *
+     * @param piece Identifier of the player "X" or "O"
+     * @return mask of the cells that player has played in
+     */
+    public long getMask(char piece){
+        return piece == PLAYER1_CHAR ? p1 : p2;
+    }
+
+    /**
+     *
+     * @return mask of every cell that has been played in
+     */
+    public long getOccupied(){
+        return p1 | p2;
+    }
+
+    /**
+     *
+     * @return number of pieces on the board
+     */
+    public int getMoves(){
+        return moves;
+    }
+
+    /**
+     *
+     * @param col column number, starting at 0
+     * @return number of pieces in that column
+     */
+    public int getHeight(int col){
+        return height[col] - col * H1;
+    }
+
+    /**
+     *
+     * @param col column number, starting at 0
+     * @return mask with every playable cell of that column set
+     */
+    public static long columnMask(int col){
+        return ((1L << ROWS) - 1) << (col * H1);
+    }
+
+    /**
+     * Finds every empty cell that would complete a connect4 for a player if a piece was played there, whether or not
+     * the cell can be played in yet
+     * @param b pieces of one player
+     * @param occupied every cell that has been played in
+     * @return mask of the cells that would make a connect4
+     */
+    public static long winningCells(long b, long occupied){
+        // vertical
+        long r = (b << 1) & (b << 2) & (b << 3);
+        r |= threats(b, H1);
+        r |= threats(b, H1 - 1);
+        r |= threats(b, H1 + 1);
+        return r & (BOARD ^ occupied);
+    }
+
+    /**
+     * Cells that complete 3 pieces in a line, with the gap at either end or in the middle of the line
+     * @param b pieces of one player
+     * @param s distance between bits on the line
+     * @return mask of cells that would finish a line of four
+     */
+    private static long threats(long b, int s){
+        long p = (b << s) & (b << 2 * s);
+        long r = p & (b << 3 * s);
+        r |= p & (b >> s);
+        p = (b >> s) & (b >> 2 * s);
+        r |= p & (b << s);
+        r |= p & (b >> 3 * s);
+        return r;
+    }
+
+    private static long bottomMask(){
+        long m = 0;
+        for(int c = 0; c < COLS; c++){
+            m |= 1L << (c * H1);
+        }
+        return m;
+    }
+}
@@ -0,0 +1,185 @@
+package core;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes the messages sent between the connect4 server and its clients, in both the framed format and
+ * the older format of bare ints. Every message is written into a buffer so it can be sent with a single write.
+ * <p>
+ * Framed messages start with a type byte and a payload length byte, followed by the payload:
+ * <ul>
+ *     <li>HELLO, client to server: magic int, protocol version byte. Sent by a client as soon as it connects.</li>
+ *     <li>PLAYER: protocol version byte, player number byte</li>
+ *     <li>START, to player 1 once player 2 has joined: no payload</li>
+ *     <li>MOVE, client to server: column byte</li>
+ *     <li>UPDATE, to both players after every move: status byte, number of the player who moved, then the row and
+ *     column the piece landed in</li>
+ *     <li>REJECT, to a player whose move could not be played: column byte. The player moves again.</li>
+ * </ul>
+ * Clients only send the column they play in. The server plays the move on its own board and tells both players where
+ * it landed, so the server's board is the only one that counts.
+ * <p>
+ * A client that says nothing within {@link #HELLO_TIMEOUT} milliseconds of connecting is an older client and is sent
+ * bare ints instead: its player number, a 1 to start, and after the other player moves the status followed by the
+ * move. It sends the row and column of its moves as two ints, and the row is ignored. An older client cannot be told
+ * that its move could not be played, so its session is ended instead.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4Protocol implements Connect4Constants {
+
+    /** First int of a HELLO message, "C4FP" */
+    public static final int MAGIC = 0x43344650;
+    /** Version of the framed protocol */
+    public static final int VERSION = 2;
+    /** Milliseconds the server waits for a HELLO before treating the client as an older client */
+    public static final int HELLO_TIMEOUT = 250;
+
+    /** Message types */
+    public static final byte HELLO = 1;
+    public static final byte PLAYER = 2;
+    public static final byte START = 3;
+    public static final byte MOVE = 4;
+    public static final byte UPDATE = 5;
+    public static final byte REJECT = 6;
+
+    /** Status of an update read by a client when the server did not play its move */
+    public static final int REJECTED = -1;
+    /** Returned by {@link #takeMove(ByteBuffer, boolean)} when a whole move has not arrived yet */
+    static final int INCOMPLETE = Integer.MIN_VALUE;
+
+    /** Bytes before the payload of a framed message */
+    static final int HEADER_SIZE = 2;
+    /** Bytes in a HELLO message */
+    static final int HELLO_SIZE = HEADER_SIZE + 5;
+    /** Largest message either side sends */
+    static final int MAX_MESSAGE = 16;
+    // bytes in a move sent by an older client, a row and a column
+    static final int LEGACY_MOVE_SIZE = 8;
+
+    private Connect4Protocol(){
+    }
+
+    /**
+     * Adds a HELLO message
+     * @param b buffer to add to
+     */
+    static void putHello(ByteBuffer b){
+        b.put(HELLO).put((byte) 5).putInt(MAGIC).put((byte) VERSION);
+    }
+
+    /**
+     * Adds the message telling a player their number
+     * @param b buffer to add to
+     * @param framed true for the framed format, false for an older client
+     * @param player PLAYER1 or PLAYER2
+     */
+    static void putPlayer(ByteBuffer b, boolean framed, int player){
+        if(framed){
+            b.put(PLAYER).put((byte) 2).put((byte) VERSION).put((byte) player);
+        }
+        else{
+            b.putInt(player);
+        }
+    }
+
+    /**
+     * Adds the message telling player 1 to start
+     * @param b buffer to add to
+     * @param framed true for the framed format, false for an older client
+     */
+    static void putStart(ByteBuffer b, boolean framed){
+        if(framed){
+            b.put(START).put((byte) 0);
+        }
+        else{
+            b.putInt(1);
+        }
+    }
+
+    /**
+     * Adds a move, only sent by framed clients
+     * @param b buffer to add to
+     * @param col column of the move starting at 0
+     */
+    static void putMove(ByteBuffer b, int col){
+        b.put(MOVE).put((byte) 1).put((byte) col);
+    }
+
+    /**
+     * Adds what a player is told after a move has been played. A framed client is always sent an update. An older
+     * client is sent the status and the move when the other player moved, only the status when its own move ended
+     * the game, and nothing when its own move did not, except that on a draw the move goes to player 2.
+     * @param b buffer to add to
+     * @param framed true for the framed format, false for an older client
+     * @param player number of the player being told
+     * @param mover number of the player who moved
+     * @param status status of the game after the move, see {@link Connect4Constants}
+     * @param row row the piece landed in
+     * @param col column of the move starting at 0
+     */
+    static void putResult(ByteBuffer b, boolean framed, int player, int mover, int status, int row, int col){
+        if(framed){
+            b.put(UPDATE).put((byte) 4).put((byte) status).put((byte) mover).put((byte) row).put((byte) col);
+            return;
+        }
+        if(player == mover && status == CONT){
+            return;
+        }
+        b.putInt(status);
+        if(status == DRAW ? player == PLAYER2 : player != mover){
+            b.putInt(row).putInt(col);
+        }
+    }
+
+    /**
+     * Adds the message telling a framed client its move could not be played
+     * @param b buffer to add to
+     * @param col column of the move
+     */
+    static void putReject(ByteBuffer b, int col){
+        b.put(REJECT).put((byte) 1).put((byte) col);
+    }
+
+    /**
+     * Takes a move out of the bytes received from a client
+     * @param in bytes received, ready to be read; whatever follows the move is left in the buffer
+     * @param framed true for the framed format, false for an older client
+     * @return column of the move starting at 0, not checked in any way, or {@link #INCOMPLETE} if a whole move has
+     * not arrived yet
+     * @throws ProtocolException if the client sent something other than a move
+     */
+    static int takeMove(ByteBuffer in, boolean framed) throws ProtocolException{
+        if(!framed){
+            if(in.remaining() < LEGACY_MOVE_SIZE){
+                return INCOMPLETE;
+            }
+            // older clients work out the row themselves, the server ignores it
+            in.getInt();
+            return in.getInt();
+        }
+        if(in.remaining() < HEADER_SIZE + 1){
+            return INCOMPLETE;
+        }
+        int start = in.position();
+        if(in.get(start) != MOVE || in.get(start + 1) != 1){
+            throw new ProtocolException("expected a move");
+        }
+        in.position(start + HEADER_SIZE);
+        return in.get();
+    }
+
+    /**
+     * Checks a HELLO message
+     * @param in bytes received, ready to be read, with at least {@link #HELLO_SIZE} bytes
+     * @return the protocol version the client speaks
+     * @throws ProtocolException if it is not a HELLO message
+     */
+    static int takeHello(ByteBuffer in) throws ProtocolException{
+        if(in.get() != HELLO || in.get() != 5 || in.getInt() != MAGIC){
+            throw new ProtocolException("expected a hello");
+        }
+        return in.get();
+    }
+}
@@ -0,0 +1,682 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * Negamax search with alpha-beta pruning for the computer player. The search works on its own copy of the position,
+ * kept as two masks (the pieces of the player to move and every occupied cell) so that playing a move is a couple of
+ * bit operations and nothing is allocated while searching. Results are kept in a {@link Connect4TranspositionTable}
+ * that lives as long as the search does, so later moves in the same game can reuse earlier work.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4Search implements Connect4Constants {
+
+    /** Score of a position that is won, a win found sooner scores higher */
+    public static final int WIN_SCORE = 100000;
+    /** Bigger than any score the search can return */
+    static final int INFINITY = WIN_SCORE + 1;
+    // scores past this are wins or losses, and are stored in the table relative to the position they came from
+    static final int WIN_BOUND = WIN_SCORE - ROWS * COLS - 1;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    // how many positions are visited between checks of the clock, a power of two
+    private static final int CLOCK_INTERVAL = 1024;
+
+    // columns closest to the center take part in the most lines, so they are tried first
+    static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};
+    // columns from left to right, used when move ordering is turned off
+    private static final int[] PLAIN_ORDER = {0, 1, 2, 3, 4, 5, 6};
+    // move ordering scores, the table move goes first, then the killers, then by threats made and history
+    private static final int TABLE_MOVE_SCORE = 1 << 30;
+    private static final int KILLER_SCORE = 1 << 29;
+    private static final int THREAT_SCORE = 1 << 20;
+    // history is kept below the value of one threat so it only breaks ties
+    private static final int HISTORY_MAX = THREAT_SCORE / 2;
+    private static final int MAX_PLY = ROWS * COLS + 1;
+
+    // number of possible connect4's through each cell, row 0 being the top
+    private static final int[][] CELL_WEIGHTS = {
+            {3, 4, 5, 7, 5, 4, 3},
+            {4, 6, 8, 10, 8, 6, 4},
+            {5, 8, 11, 13, 11, 8, 5},
+            {5, 8, 11, 13, 11, 8, 5},
+            {4, 6, 8, 10, 8, 6, 4},
+            {3, 4, 5, 7, 5, 4, 3}};
+    private static final int[] WEIGHTS = {3, 4, 5, 6, 7, 8, 10, 11, 13};
+    private static final long[] WEIGHT_MASKS = weightMasks();
+    // value of a cell that would complete a connect4
+    private static final int THREAT_WEIGHT = 40;
+
+    private int depth;
+    private long nodes;
+    private int bestMove = -1;
+    private int bestScore;
+    private final Connect4TranspositionTable table;
+    private int depthReached;
+    // root of the current search
+    private long rootCur;
+    private long rootMask;
+    private long rootHash;
+    private int rootMoves;
+    // player to move at the root, 0 for player 1 and 1 for player 2
+    private int rootSide;
+    // System.nanoTime() at which a timed search has to stop
+    private long deadline;
+    private boolean stopped;
+    // set from another thread to stop the search
+    private volatile boolean stopRequested;
+    // what a running search has done so far, for other threads to show
+    private volatile long progressNodes;
+    private volatile int progressDepth;
+    private int helperId;
+
+    private boolean ordering = true;
+    // two killer cells per ply, moves that caused a cutoff in a sibling position
+    private final int[] killers = new int[MAX_PLY * 2];
+    // how often playing a cell caused a cutoff, indexed by player * 64 + bit
+    private final int[] history = new int[128];
+    // ordered moves and their scores for each ply
+    private final int[] moveList = new int[MAX_PLY * COLS];
+    private final int[] moveScores = new int[MAX_PLY * COLS];
+    private long cutoffs;
+    private long firstMoveCutoffs;
+
+    /**
+     * Creates a search that looks a fixed number of moves ahead with a transposition table of the default size
+     * @param depth number of moves to look ahead, at least 1
+     */
+    public Connect4Search(int depth){
+        this(depth, new Connect4TranspositionTable(Connect4TranspositionTable.DEFAULT_MB));
+    }
+
+    /**
+     * Creates a search that looks a fixed number of moves ahead
+     * @param depth number of moves to look ahead, at least 1
+     * @param table transposition table to keep results in
+     */
+    public Connect4Search(int depth, Connect4TranspositionTable table){
+        setDepth(depth);
+        this.table = table;
+    }
+
+    /**
+     *
+     * @return the transposition table this search keeps its results in
+     */
+    public Connect4TranspositionTable getTable(){
+        return table;
+    }
+
+    /**
+     *
+     * @param depth number of moves to look ahead, at least 1
+     */
+    public void setDepth(int depth){
+        if(depth < 1){
+            throw new IllegalArgumentException("depth must be at least 1");
+        }
+        this.depth = depth;
+    }
+
+    /**
+     *
+     * @return number of moves the search looks ahead
+     */
+    public int getDepth(){
+        return depth;
+    }
+
+    /**
+     * Turns move ordering on or off. With it on, moves are tried best first: the move stored in the transposition
+     * table, then the killer moves for the ply, then by how many new threats the move makes and the history table,
+     * with center columns breaking ties. With it off, columns are tried from left to right. Turning it off is only
+     * useful for measuring how much it helps, see {@link #getFirstMoveCutoffRate()}.
+     * @param ordering true to order moves
+     */
+    public void setMoveOrdering(boolean ordering){
+        this.ordering = ordering;
+    }
+
+    /**
+     *
+     * @return true if moves are ordered before they are searched
+     */
+    public boolean isMoveOrdering(){
+        return ordering;
+    }
+
+    /**
+     *
+     * @return number of beta cutoffs in the last search
+     */
+    public long getCutoffs(){
+        return cutoffs;
+    }
+
+    /**
+     *
+     * @return number of beta cutoffs in the last search that came from the first move tried
+     */
+    public long getFirstMoveCutoffs(){
+        return firstMoveCutoffs;
+    }
+
+    /**
+     *
+     * @return share of the cutoffs in the last search that came from the first move tried, between 0 and 1
+     */
+    public double getFirstMoveCutoffRate(){
+        return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+    }
+
+    /**
+     *
+     * @return number of moves ahead the last search finished looking
+     */
+    public int getDepthReached(){
+        return depthReached;
+    }
+
+    /**
+     *
+     * @return number of positions visited by the last search
+     */
+    public long getNodes(){
+        return nodes;
+    }
+
+    /**
+     *
+     * @return column picked by the last search starting at 0, or -1 if there was no move
+     */
+    public int getBestMove(){
+        return bestMove;
+    }
+
+    /**
+     *
+     * @return score of the last search from the point of view of the player that moved
+     */
+    public int getBestScore(){
+        return bestScore;
+    }
+
+    /**
+     * Searches a position for the best move for a player, looking ahead the number of moves set for this search.
+     * It searches one move deeper at a time up to that depth, so if it is stopped it returns the best move from the
+     * deepest search that finished, and it stops early once it finds a forced win or loss. The position is not
+     * changed.
+     * @param pos position to search
+     * @param piece Identifier of the player to move "X" or "O"
+     * @return best column to play starting at 0, or -1 if the board is full
+     */
+    public int search(Connect4Position pos, char piece){
+        stopRequested = false;
+        return iterate(pos, piece, depth, 0);
+    }
+
+    /**
+     * Searches a position one move deeper at a time until the time runs out, and returns the best move from the
+     * deepest search that finished. The search never goes deeper than the moves left in the game, and stops early
+     * once it finds a forced win or loss. At least a one move search is always finished so a legal move is returned.
+     * The position is not changed.
+     * @param pos position to search
+     * @param piece Identifier of the player to move "X" or "O"
+     * @param millis time allowed for the search in milliseconds
+     * @return best column to play starting at 0, or -1 if the board is full
+     */
+    public int searchTimed(Connect4Position pos, char piece, long millis){
+        stopRequested = false;
+        return iterate(pos, piece, ROWS * COLS - pos.getMoves(), millis);
+    }
+
+    /**
+     * Can be called from any thread while a search runs
+     * @return positions visited so far by the running or last search, counted every thousand or so positions
+     */
+    public long getProgressNodes(){
+        return progressNodes;
+    }
+
+    /**
+     * Can be called from any thread while a search runs
+     * @return depth the running search is looking at, or the last search looked at
+     */
+    public int getProgressDepth(){
+        return progressDepth;
+    }
+
+    /**
+     * Stops a search running on another thread as soon as possible. The search returns the best move from the deepest
+     * search that finished.
+     */
+    public void stop(){
+        stopRequested = true;
+    }
+
+    /**
+     *
+     * @return true if the last search was cut short by {@link #stop()} rather than finishing or running out of time
+     */
+    public boolean wasStopped(){
+        return stopped && stopRequested;
+    }
+
+    /**
+     * Clears an earlier call to {@link #stop()} before a search is started on another thread
+     */
+    void clearStop(){
+        stopRequested = false;
+    }
+
+    /**
+     * Searches one move deeper at a time, see {@link #searchTimed(Connect4Position, char, long)}. Unlike the public
+     * searches this does not clear an earlier call to {@link #stop()}.
+     * @param pos position to search
+     * @param piece Identifier of the player to move "X" or "O"
+     * @param maxDepth deepest search to run
+     * @param millis time allowed for the search in milliseconds, or 0 to run until the deepest search is done
+     * @return best column to play starting at 0, or -1 if the board is full
+     */
+    int iterate(Connect4Position pos, char piece, int maxDepth, long millis){
+        long started = System.nanoTime();
+        deadline = NO_DEADLINE;
+        if(!start(pos, piece)){
+            return bestMove;
+        }
+        // helpers start at different depths so they do not all search the same tree
+        for(int d = 1 + (helperId & 1); d <= maxDepth; d++){
+            int move = bestMove;
+            int score = bestScore;
+            progressDepth = d;
+            rootSearch(d);
+            if(stopped){
+                // the unfinished search is thrown away
+                bestMove = move;
+                bestScore = score;
+                break;
+            }
+            depthReached = d;
+            if(bestScore > WIN_BOUND || bestScore < -WIN_BOUND){
+                break;
+            }
+            // only the first search is guaranteed to finish, a one move search never gets as far as checking for a
+            // stop, so there is always a move from a search that finished
+            if(millis > 0){
+                deadline = started + millis * 1000000L;
+            }
+        }
+        return bestMove;
+    }
+
+    /**
+     * Marks this search as a helper of a {@link Connect4ParallelSearch}. Helpers try root moves in a different order
+     * so they spread out over the tree, and leave starting a new table generation to the main search.
+     * @param id 0 for the main search, or the number of the helper
+     */
+    void setHelperId(int id){
+        helperId = id;
+    }
+
+    /**
+     * Sets up the root of a search and plays an immediate win if there is one
+     * @param pos position to search
+     * @param piece Identifier of the player to move "X" or "O"
+     * @return false if there is nothing left to search
+     */
+    private boolean start(Connect4Position pos, char piece){
+        rootCur = pos.getMask(piece);
+        rootMask = pos.getOccupied();
+        rootMoves = pos.getMoves();
+        rootSide = piece == PLAYER1_CHAR ? 0 : 1;
+        rootHash = Connect4TranspositionTable.hash(pos, piece);
+        nodes = 1;
+        progressNodes = 1;
+        progressDepth = 0;
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+        depthReached = 0;
+        stopped = false;
+        Arrays.fill(killers, -1);
+        for(int i = 0; i < history.length; i++){
+            history[i] >>= 2;
+        }
+        bestMove = -1;
+        bestScore = -INFINITY;
+        long possible = (rootMask + Connect4Position.BOTTOM) & Connect4Position.BOARD;
+        long wins = Connect4Position.winningCells(rootCur, rootMask) & possible;
+        for(int i = 0; i < COLS; i++){
+            int c = ORDER[i];
+            long move = possible & Connect4Position.columnMask(c);
+            if(move == 0){
+                continue;
+            }
+            if(bestMove == -1){
+                bestMove = c;
+            }
+            if((wins & move) != 0){
+                bestMove = c;
+                bestScore = WIN_SCORE - 1;
+                depthReached = 1;
+                return false;
+            }
+        }
+        if(bestMove == -1){
+            return false;
+        }
+        if(helperId == 0){
+            table.newSearch();
+        }
+        return true;
+    }
+
+    /**
+     * Scores every move in a position to a fixed depth. Unlike a normal search each move gets its own full window,
+     * so every score is exact instead of only the best one. Like {@link #iterate(Connect4Position, char, int, long)}
+     * this does not clear an earlier call to {@link #stop()}.
+     * @param pos position to search
+     * @param piece Identifier of the player to move "X" or "O"
+     * @param depth number of moves to look ahead, at least 1
+     * @param scores filled with the score of each column from the point of view of the player to move, or
+     * Integer.MIN_VALUE if the column is full
+     * @return false if the search was stopped before every move was scored
+     */
+    boolean scoreColumns(Connect4Position pos, char piece, int depth, int[] scores){
+        deadline = NO_DEADLINE;
+        // start only says whether there is more to do than play a winning move, every column is scored regardless
+        start(pos, piece);
+        progressDepth = depth;
+        long possible = (rootMask + Connect4Position.BOTTOM) & Connect4Position.BOARD;
+        long wins = Connect4Position.winningCells(rootCur, rootMask) & possible;
+        for(int c = 0; c < COLS; c++){
+            long m = possible & Connect4Position.columnMask(c);
+            if(m == 0){
+                scores[c] = Integer.MIN_VALUE;
+            }
+            else if((wins & m) != 0){
+                scores[c] = WIN_SCORE - 1;
+            }
+            else{
+                scores[c] = -negamax(rootCur ^ rootMask, rootMask | m, rootMoves + 1, play(rootHash, m, 0),
+                        depth - 1, -INFINITY, INFINITY, 1);
+                if(stopped){
+                    return false;
+                }
+            }
+        }
+        depthReached = depth;
+        return true;
+    }
+
+    /**
+     * Searches every move at the root to a fixed depth, trying the best move so far first
+     * @param depth number of moves to look ahead
+     */
+    private void rootSearch(int depth){
+        long possible = (rootMask + Connect4Position.BOTTOM) & Connect4Position.BOARD;
+        int[] order = ordering ? ORDER : PLAIN_ORDER;
+        int first = ordering ? bestMove : order[0];
+        int alpha = -INFINITY;
+        int move = -1;
+        for(int i = -1; i < COLS; i++){
+            int c = i == -1 ? first : order[(i + helperId) % COLS];
+            if(i >= 0 && c == first){
+                continue;
+            }
+            long m = possible & Connect4Position.columnMask(c);
+            if(m == 0){
+                continue;
+            }
+            int score = -negamax(rootCur ^ rootMask, rootMask | m, rootMoves + 1, play(rootHash, m, 0), depth - 1,
+                    -INFINITY, -alpha, 1);
+            if(stopped){
+                return;
+            }
+            if(score > alpha){
+                alpha = score;
+                move = c;
+            }
+        }
+        bestMove = move;
+        bestScore = alpha;
+        table.store(rootHash, alpha, depth, Connect4TranspositionTable.EXACT, move);
+    }
+
+    /**
+     * Scores a position from the point of view of the player to move
+     * @param cur pieces of the player to move
+     * @param mask every occupied cell
+     * @param moves number of pieces on the board
+     * @param hash Zobrist key of the position
+     * @param depth moves left to look ahead
+     * @param alpha lowest score the player to move is already guaranteed
+     * @param beta highest score the opponent will allow
+     * @param ply number of moves played since the root of the search
+     * @return score of the position
+     */
+    private int negamax(long cur, long mask, int moves, long hash, int depth, int alpha, int beta, int ply){
+        if((++nodes & (CLOCK_INTERVAL - 1)) == 0){
+            progressNodes = nodes;
+            if(stopRequested || (deadline != NO_DEADLINE && System.nanoTime() - deadline > 0)){
+                stopped = true;
+            }
+        }
+        if(stopped){
+            return 0;
+        }
+        long possible = (mask + Connect4Position.BOTTOM) & Connect4Position.BOARD;
+        if((Connect4Position.winningCells(cur, mask) & possible) != 0){
+            return WIN_SCORE - ply - 1;
+        }
+        if(moves >= ROWS * COLS - 1){
+            // the last piece cannot win since we just checked, so the game is a draw
+            return 0;
+        }
+        if(depth == 0){
+            return evaluate(cur, mask);
+        }
+        long entry = table.probe(hash);
+        int tableMove = -1;
+        if(entry != Connect4TranspositionTable.MISS){
+            tableMove = Connect4TranspositionTable.moveOf(entry);
+            if(Connect4TranspositionTable.depthOf(entry) >= depth){
+                int score = fromTable(Connect4TranspositionTable.scoreOf(entry), ply);
+                int flag = Connect4TranspositionTable.flagOf(entry);
+                if(flag == Connect4TranspositionTable.EXACT
+                        || (flag == Connect4TranspositionTable.LOWER && score >= beta)
+                        || (flag == Connect4TranspositionTable.UPPER && score <= alpha)){
+                    return score;
+                }
+            }
+        }
+        int alphaOrig = alpha;
+        int best = -INFINITY;
+        int bestCol = -1;
+        int base = ply * COLS;
+        int n = orderMoves(cur, mask, possible, ply, tableMove);
+        for(int i = 0; i < n; i++){
+            int c = moveList[base + i];
+            long move = possible & Connect4Position.columnMask(c);
+            int score = -negamax(cur ^ mask, mask | move, moves + 1, play(hash, move, ply), depth - 1,
+                    -beta, -alpha, ply + 1);
+            if(stopped){
+                return 0;
+            }
+            if(score > best){
+                best = score;
+                bestCol = c;
+                if(score > alpha){
+                    alpha = score;
+                    if(alpha >= beta){
+                        cutoffs++;
+                        if(i == 0){
+                            firstMoveCutoffs++;
+                        }
+                        if(ordering){
+                            rememberCutoff(possible, i, depth, ply);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        int flag = best <= alphaOrig ? Connect4TranspositionTable.UPPER
+                : best >= beta ? Connect4TranspositionTable.LOWER : Connect4TranspositionTable.EXACT;
+        table.store(hash, toTable(best, ply), depth, flag, bestCol);
+        return best;
+    }
+
+    /**
+     * Puts the playable columns of a position into this ply's part of the move list, best first
+     * @param cur pieces of the player to move
+     * @param mask every occupied cell
+     * @param possible cells that can be played in
+     * @param ply number of moves played since the root
+     * @param tableMove best column stored in the transposition table, or -1
+     * @return number of moves in the list
+     */
+    private int orderMoves(long cur, long mask, long possible, int ply, int tableMove){
+        int base = ply * COLS;
+        int side = (rootSide ^ (ply & 1)) << 6;
+        int[] order = ordering ? ORDER : PLAIN_ORDER;
+        int n = 0;
+        for(int i = 0; i < COLS; i++){
+            int c = order[i];
+            long move = possible & Connect4Position.columnMask(c);
+            if(move == 0){
+                continue;
+            }
+            int score = 0;
+            if(ordering){
+                if(c == tableMove){
+                    score = TABLE_MOVE_SCORE;
+                }
+                else if(Long.numberOfTrailingZeros(move) == killers[ply * 2]){
+                    score = KILLER_SCORE + 1;
+                }
+                else if(Long.numberOfTrailingZeros(move) == killers[ply * 2 + 1]){
+                    score = KILLER_SCORE;
+                }
+                else{
+                    score = THREAT_SCORE * Long.bitCount(Connect4Position.winningCells(cur | move, mask | move))
+                            + history[side + Long.numberOfTrailingZeros(move)];
+                }
+            }
+            // insertion sort that keeps the center first order for equal scores
+            int j = n++;
+            while(j > 0 && moveScores[base + j - 1] < score){
+                moveList[base + j] = moveList[base + j - 1];
+                moveScores[base + j] = moveScores[base + j - 1];
+                j--;
+            }
+            moveList[base + j] = c;
+            moveScores[base + j] = score;
+        }
+        return n;
+    }
+
+    /**
+     * Records the move that caused a cutoff as a killer for its ply, and in the history table. The moves that were
+     * tried before it and did not cause a cutoff lose history.
+     * @param possible cells that could be played in
+     * @param index place of the move in this ply's move list
+     * @param depth moves that were left to look ahead
+     * @param ply number of moves played since the root
+     */
+    private void rememberCutoff(long possible, int index, int depth, int ply){
+        int base = ply * COLS;
+        int side = (rootSide ^ (ply & 1)) << 6;
+        int bit = Long.numberOfTrailingZeros(possible & Connect4Position.columnMask(moveList[base + index]));
+        if(killers[ply * 2] != bit){
+            killers[ply * 2 + 1] = killers[ply * 2];
+            killers[ply * 2] = bit;
+        }
+        boolean age = (history[side + bit] += depth) > HISTORY_MAX;
+        for(int k = 0; k < index; k++){
+            int b = Long.numberOfTrailingZeros(possible & Connect4Position.columnMask(moveList[base + k]));
+            age |= (history[side + b] -= depth) < -HISTORY_MAX;
+        }
+        if(age){
+            for(int j = 0; j < history.length; j++){
+                history[j] >>= 1;
+            }
+        }
+    }
+
+    /**
+     * Updates a Zobrist key for a move
+     * @param hash key before the move
+     * @param move mask with the cell being played in
+     * @param ply number of moves played since the root, used to tell whose piece it is
+     * @return key after the move
+     */
+    private long play(long hash, long move, int ply){
+        int side = rootSide ^ (ply & 1);
+        return hash ^ Connect4TranspositionTable.pieceKey(side, Long.numberOfTrailingZeros(move))
+                ^ Connect4TranspositionTable.sideKey();
+    }
+
+    /**
+     * Win and loss scores count moves from the root, so they are stored counting from the position instead
+     * @param score score counted from the root
+     * @param ply number of moves played since the root
+     * @return score to store
+     */
+    private static int toTable(int score, int ply){
+        if(score > WIN_BOUND){
+            return score + ply;
+        }
+        if(score < -WIN_BOUND){
+            return score - ply;
+        }
+        return score;
+    }
+
+    /**
+     * Reverses {@link #toTable(int, int)}
+     * @param score stored score
+     * @param ply number of moves played since the root
+     * @return score counted from the root
+     */
+    private static int fromTable(int score, int ply){
+        if(score > WIN_BOUND){
+            return score - ply;
+        }
+        if(score < -WIN_BOUND){
+            return score + ply;
+        }
+        return score;
+    }
+
+    /**
+     * Heuristic score of a position where nobody can win right away. Pieces in cells that are part of more possible
+     * lines are worth more, and so are empty cells that would complete a connect4.
+     * @param cur pieces of the player to move
+     * @param mask every occupied cell
+     * @return positive if the player to move is better off
+     */
+    static int evaluate(long cur, long mask){
+        long opp = cur ^ mask;
+        int score = 0;
+        for(int i = 0; i < WEIGHTS.length; i++){
+            score += WEIGHTS[i] * (Long.bitCount(cur & WEIGHT_MASKS[i]) - Long.bitCount(opp & WEIGHT_MASKS[i]));
+        }
+        score += THREAT_WEIGHT * (Long.bitCount(Connect4Position.winningCells(cur, mask))
+                - Long.bitCount(Connect4Position.winningCells(opp, mask)));
+        return score;
+    }
+
+    private static long[] weightMasks(){
+        long[] masks = new long[WEIGHTS.length];
+        for(int r = 0; r < ROWS; r++){
+            for(int c = 0; c < COLS; c++){
+                for(int i = 0; i < WEIGHTS.length; i++){
+                    if(WEIGHTS[i] == CELL_WEIGHTS[r][c]){
+                        masks[i] |= 1L << (c * Connect4Position.H1 + ROWS - 1 - r);
+                    }
+                }
+            }
+        }
+        return masks;
+    }
+}
@@ -1,10 +1,10 @@
 package core;
 
 import java.io.*;
-import java.net.*;
-import java.util.Date;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.Consumer;
 
-import core.Connect4;
 import core.Connect4Constants;
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -14,14 +14,22 @@ import javafx.scene.control.TextArea;
 import javafx.stage.Stage;
 
 /**
- *Server for connect 4
+ *Server for connect 4, with a window showing the most recent part of the log. See {@link Connect4HeadlessServer} to
+ * run it without a window, and for the arguments it takes. --no-view leaves the log out of the window.
  *
  * @author Justin Kolich
  * @version 1.0
  */
 public class Connect4Server extends Application implements Connect4Constants {
-    // Session number of the first game
-    private int sessionNo = 1;
+    /** Characters of the log the window keeps, older lines are removed */
+    public static final int MAX_VIEW_CHARS = 64 * 1024;
+
+    // the server and its log, closed when the window is
+    private Connect4HeadlessServer server;
+    private Connect4Log log;
+    // lengths of the batches of lines in the view, oldest first, only used on the FX thread
+    private final ArrayDeque<Integer> viewBatches = new ArrayDeque<>();
+    private int viewChars;
 
     /**
      * Start method for the Server UI, displays important messgae as well as info about who is joining
@@ -29,7 +37,9 @@ public class Connect4Server extends Application implements Connect4Constants {
      */
     @Override
     public void start(Stage primaryStage){
+        String[] args = getParameters().getRaw().toArray(new String[0]);
         TextArea taLog = new TextArea();
+        taLog.setEditable(false);
 
         Scene scene = new Scene(new ScrollPane(taLog), 450, 200);
         primaryStage.setTitle("Connect4 Server");
@@ -38,169 +48,63 @@ public class Connect4Server extends Application implements Connect4Constants {
 
         primaryStage.setOnCloseRequest(e->Platform.exit());
 
-        new Thread(()->{
-            try{
-                // new serverSocket
-                ServerSocket serverSocket = new ServerSocket(8000);
-                Platform.runLater(()-> taLog.appendText(new Date() + ": Server started at socket 8000\n"));
-
-                //create a session for every 2 players
-                while(true){
-                    Platform.runLater(()-> taLog.appendText(new Date() +
-                            ": Waiting for players to join session " + sessionNo +"\n")
-                    );
-
-                    // Connect to player 1
-                    Socket player1 = serverSocket.accept();
-
-                    Platform.runLater(()-> {taLog.appendText(new Date() +
-                            ": Player 1 has joined session  " + sessionNo +"\n");
-                            taLog.appendText("Player 1's IP address: " + player1.getInetAddress().getHostAddress() +"\n");
-                    });
-
-                    new DataOutputStream(player1.getOutputStream()).writeInt(PLAYER1);
-
-                    // Connect to player 2
-                    Socket player2 = serverSocket.accept();
-
-                    Platform.runLater(()-> {taLog.appendText(new Date() +
-                            ": Player 2 has joined session  " + sessionNo +"\n");
-                        taLog.appendText("Player 2's IP address: " + player2.getInetAddress().getHostAddress() +"\n");
-                    });
-
-                    new DataOutputStream(player2.getOutputStream()).writeInt(PLAYER2);
-
-                    Platform.runLater(()-> taLog.appendText(new Date() +
-                            ": Start a thread for session " + sessionNo++ + "\n")
-                    );
-
-                    new Thread(new HandleASession(player1, player2)).start();
-
-                }
+        // the log writer hands over whole batches, so the FX thread gets one update per batch and not per line
+        Consumer<String> view = null;
+        if(!Arrays.asList(args).contains("--no-view")){
+            view = lines -> Platform.runLater(()-> show(taLog, lines));
+        }
+        try{
+            log = new Connect4Log(Connect4HeadlessServer.option(args, "log", Connect4HeadlessServer.DEFAULT_LOG), view);
+            int port = Integer.parseInt(Connect4HeadlessServer.option(args, "port",
+                    Integer.toString(Connect4HeadlessServer.DEFAULT_PORT)));
+            // with --nio the sessions are run on a few event loops instead of a thread each
+            server = new Connect4HeadlessServer(port, Arrays.asList(args).contains("--nio"), log);
+            server.setMetricsPort(Integer.parseInt(Connect4HeadlessServer.option(args, "metrics-port", "0")));
+            Connect4HeadlessServer.aiOptions(server, args);
+            server.start();
+        }
+        catch (IOException e){
+            String msg = "Could not start the server: " + e.getMessage();
+            if(log != null){
+                log.accept(msg);
             }
-            catch (IOException e){
-                e.printStackTrace();
+            else{
+                // the log itself could not be opened, so the window is told directly
+                show(taLog, msg + "\n");
             }
-        }).start();
+        }
     }
 
     /**
-     * Handles each different session for a game
+     * Adds lines to the view and removes the oldest ones once it holds more than {@link #MAX_VIEW_CHARS}
+     * @param taLog the view
+     * @param lines the lines to add
      */
-    class HandleASession implements Runnable, Connect4Constants{
-        // Create variables for p1 and p2
-        private Socket player1;
-        private Socket player2;
-
-        private char[][] board = new char[ROWS][COLS];
-
-        //create streams to and from both players
-        private DataOutputStream toPlayer1;
-        private DataOutputStream toPlayer2;
-        private DataInputStream fromPlayer1;
-        private DataInputStream fromPlayer2;
-
-        //
-        private boolean gameOver = false;
-
-        /**
-         * HAndles each session that is played by establishing a connection to 2 players
-         * @param player1 player 1 Socket for the first player
-         * @param player2 player 2 Socket for the second player
-         */
-        HandleASession(Socket player1, Socket player2){
-            this.player1 = player1;
-            this.player2 = player2;
-
-            for(int i = 0; i < ROWS; i++){
-                for(int j = 0; j < COLS; j++){
-                    board[i][j] = ' ';
-                }
-            }
+    private void show(TextArea taLog, String lines){
+        taLog.appendText(lines);
+        viewBatches.add(lines.length());
+        viewChars += lines.length();
+        int remove = 0;
+        while(viewChars > MAX_VIEW_CHARS && viewBatches.size() > 1){
+            int n = viewBatches.poll();
+            remove += n;
+            viewChars -= n;
         }
-
-        /**
-         * Runs the session
-         */
-        public void run(){
-            try{
-                fromPlayer1 = new DataInputStream(player1.getInputStream());
-                toPlayer1 = new DataOutputStream(player1.getOutputStream());
-                fromPlayer2 = new DataInputStream(player2.getInputStream());
-                toPlayer2 = new DataOutputStream(player2.getOutputStream());
-
-                //tell player1 to start
-                toPlayer1.writeInt(1);
-
-                // game loop that is infinite
-                while(true){
-                    int row = fromPlayer1.readInt();
-                    int col = fromPlayer1.readInt();
-                    board[row][col] = PLAYER1_CHAR;
-                    Connect4.setBoard(board);
-
-                    if(Connect4.fourInARow(PLAYER1_CHAR)){
-                        toPlayer1.writeInt(PLAYER1_WIN);
-                        toPlayer2.writeInt(PLAYER1_WIN);
-                        sendMove(toPlayer2, row, col);
-                        break;
-                    }
-                    else{
-                        toPlayer2.writeInt(CONT);
-                        sendMove(toPlayer2, row, col);
-                    }
-
-                    row = fromPlayer2.readInt();
-                    col = fromPlayer2.readInt();
-                    board[row][col] = PLAYER2_CHAR;
-                    Connect4.setBoard(board);
-
-                    if(Connect4.fourInARow(PLAYER2_CHAR)){
-                        toPlayer1.writeInt(PLAYER2_WIN);
-                        toPlayer2.writeInt(PLAYER2_WIN);
-                        sendMove(toPlayer1, row, col);
-                    }
-                    else if(isFull()){
-                        toPlayer1.writeInt(DRAW);
-                        toPlayer2.writeInt(DRAW);
-                        sendMove(toPlayer2, row, col);
-                        break;
-                    }
-                    else{
-                        toPlayer1.writeInt(CONT);
-                        sendMove(toPlayer1, row, col);
-                    }
-
-
-                }
-            }
-            catch (IOException e){
-                e.printStackTrace();
-            }
+        if(remove > 0){
+            taLog.deleteText(0, remove);
         }
+    }
 
-        /**
-         * Sends the move to the specified player
-         * @param out Output stream of the player
-         * @param r row that was played
-         * @param c column that was played
-         * @throws IOException If there is a problem writing data
-         */
-        private void sendMove(DataOutputStream out, int r, int c) throws IOException{
-            out.writeInt(r);
-            out.writeInt(c);
+    /**
+     * Stops the server and writes out the rest of the log when the window closes
+     */
+    @Override
+    public void stop(){
+        if(server != null){
+            server.stop();
         }
-
-        /**
-         * Is the 2D array full
-         * @return true if the array is full, false if not
-         */
-        private boolean isFull(){
-            for(int i = 0; i < ROWS; i++)
-                for(int j = 0; j < COLS; j++)
-                    if(board[i][j] ==' ')
-                        return false;
-            return true;
+        if(log != null){
+            log.close();
         }
     }
 
@@ -0,0 +1,137 @@
+package core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.ProtocolException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Handles each different session for a game, run by the blocking server on a thread of its own. Player 2 can be a
+ * computer opponent, whose moves come from a {@link Connect4AiPool} shared by every such session.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4Session implements Runnable, Connect4Constants {
+    // Create variables for p1 and p2
+    private final Connect4Connection player1;
+    private final Connect4Connection player2;
+    // picks player 2's moves when player 2 is the computer, null when player 2 is a person
+    private final Connect4AiPool ai;
+
+    // every session owns its own game so sessions never see each other's boards
+    private final Connect4 game = new Connect4();
+    private final Connect4Metrics metrics;
+
+    /**
+     * HAndles each session that is played between 2 players
+     * @param player1 connection to the first player, already told they are player 1
+     * @param player2 connection to the second player, already told they are player 2
+     */
+    public Connect4Session(Connect4Connection player1, Connect4Connection player2){
+        this(player1, player2, new Connect4Metrics());
+    }
+
+    /**
+     * Handles a session that records how long each move takes
+     * @param player1 connection to the first player, already told they are player 1
+     * @param player2 connection to the second player, already told they are player 2
+     * @param metrics counters to record the move latencies in
+     */
+    public Connect4Session(Connect4Connection player1, Connect4Connection player2, Connect4Metrics metrics){
+        this.player1 = player1;
+        this.player2 = player2;
+        this.ai = null;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Handles a session between a player and a computer opponent
+     * @param player1 connection to the player, already told they are player 1
+     * @param ai pool that picks the computer's moves
+     * @param metrics counters to record the player's move latencies in
+     */
+    public Connect4Session(Connect4Connection player1, Connect4AiPool ai, Connect4Metrics metrics){
+        this.player1 = player1;
+        this.player2 = null;
+        this.ai = ai;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Runs the session. Players only send the column they play in; the move is played on this session's board
+     * and both players are told where it landed.
+     * @throws UncheckedIOException if a player leaves or does not follow the protocol, or the computer cannot move
+     */
+    public void run(){
+        try{
+            //tell player1 to start
+            player1.sendStart();
+
+            Connect4Connection mover = player1;
+            int moverNumber = PLAYER1;
+            // game loop that runs until someone wins or the board is full, mover is null for the computer's turn
+            while(true){
+                int col;
+                long received;
+                if(mover == null){
+                    col = computerMove();
+                    received = System.nanoTime();
+                }
+                else{
+                    col = mover.readMove();
+                    received = System.nanoTime();
+                }
+                char piece = moverNumber == PLAYER1 ? PLAYER1_CHAR : PLAYER2_CHAR;
+                int status = game.placeAndCheck(col+1, piece);
+
+                if(status == -1){
+                    if(mover == null || !mover.isFramed()){
+                        // an older client cannot be told, so the game cannot go on
+                        throw new ProtocolException("player " + moverNumber + " played in column " + col);
+                    }
+                    mover.sendReject(col);
+                    continue;
+                }
+
+                int row = game.getLastRow();
+                // a result is written out before sendResult returns, so each player's round trip ends there
+                player1.sendResult(PLAYER1, moverNumber, status, row, col);
+                metrics.getMoveRoundTrip().record(System.nanoTime() - received);
+                if(player2 != null){
+                    player2.sendResult(PLAYER2, moverNumber, status, row, col);
+                    metrics.getMoveRoundTrip().record(System.nanoTime() - received);
+                }
+                metrics.getMoveProcessing().record(System.nanoTime() - received);
+                if(status != CONT){
+                    break;
+                }
+                mover = mover == player1 ? player2 : player1;
+                moverNumber = moverNumber == PLAYER1 ? PLAYER2 : PLAYER1;
+            }
+        }
+        catch (IOException e){
+            // a Runnable cannot throw it, so whoever runs the session can still log it
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Waits for the pool to pick the computer's move
+     * @return column of the move starting at 0
+     * @throws IOException if the pool could not pick a move or this thread was interrupted while waiting
+     */
+    private int computerMove() throws IOException{
+        try{
+            return ai.move(game.getPosition(), PLAYER2_CHAR).get();
+        }
+        catch (ExecutionException | CancellationException e){
+            throw new IOException("the computer could not move", e);
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("stopped waiting for the computer");
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package core;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Solves a connect4 position with perfect play, as opposed to {@link Connect4Search} which only looks a limited
+ * number of moves ahead. The score of a position says who wins and how fast: a positive score means the player to
+ * move wins, 1 if they win with their last piece, 2 with their second to last piece and so on. A negative score means
+ * the opponent wins in the same way, and 0 is a draw.
+ * <p>
+ * The solver narrows the score down with null window searches (each search only answers whether the score is above
+ * a value) and uses the bitboard threat masks to never play a move that lets the opponent win right away. Both
+ * bounds a search finds are kept in a {@link Connect4TranspositionTable} between solves, along with the move that
+ * refuted each position so it is tried first next time.
+ * <p>
+ * On one core with the default table, random positions from 14 moves in are solved in about 15ms on average and
+ * none took more than a tenth of a second. From 10 moves in the average is about a quarter of a second but the
+ * hardest take one to two seconds, and from 8 moves in the average is close to a second with the hardest over four,
+ * so closer to the start of the game the opening book is the better choice. Run the benchmark below to measure other
+ * positions or machines.
+ * <p>
+ * Usage: java core.Connect4Solver moves, where moves are the columns played so far starting at 1, e.g. 4453
+ * <br>
+ * or java core.Connect4Solver --bench [moves] [positions], which solves random positions with that many moves played
+ * (default 10) from scratch and prints how long they took
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4Solver implements Connect4Constants {
+
+    /** Size of the transposition table in megabytes unless told otherwise */
+    public static final int DEFAULT_MB = 64;
+
+    private static final int MAX_PLY = ROWS * COLS + 1;
+
+    private final Connect4TranspositionTable table;
+    private long nodes;
+    // moves and their scores for each ply, best first
+    private final int[] moveList = new int[MAX_PLY * COLS];
+    private final int[] moveScores = new int[MAX_PLY * COLS];
+
+    /**
+     * Creates a solver with a transposition table of the default size
+     */
+    public Connect4Solver(){
+        this(DEFAULT_MB);
+    }
+
+    /**
+     * @param tableMegabytes size of the transposition table in megabytes, at least 1
+     */
+    public Connect4Solver(int tableMegabytes){
+        table = new Connect4TranspositionTable(tableMegabytes);
+    }
+
+    /**
+     *
+     * @return number of positions visited by the last solve
+     */
+    public long getNodes(){
+        return nodes;
+    }
+
+    /**
+     * Forgets every position solved so far
+     */
+    public void reset(){
+        table.clear();
+    }
+
+    /**
+     * Finds the exact score of a position
+     * @param pos position to solve, nobody can have won yet
+     * @param piece Identifier of the player to move "X" or "O"
+     * @return score of the position, see the class description
+     */
+    public int solve(Connect4Position pos, char piece){
+        return solve(pos, piece, false);
+    }
+
+    /**
+     * Solves a position
+     * @param pos position to solve, nobody can have won yet
+     * @param piece Identifier of the player to move "X" or "O"
+     * @param weak true to only find out who wins, which is faster
+     * @return score of the position, or with a weak solve 1 for a win, 0 for a draw and -1 for a loss
+     */
+    public int solve(Connect4Position pos, char piece, boolean weak){
+        long cur = pos.getMask(piece);
+        long mask = pos.getOccupied();
+        int moves = pos.getMoves();
+        nodes = 0;
+        // entries are stored with the moves left as their depth, so without a new generation the entries near the
+        // root of earlier solves could never be replaced and a solver that is kept would fill up with them
+        table.newSearch();
+        if(canWinNext(cur, mask)){
+            return weak ? 1 : (ROWS * COLS + 1 - moves) / 2;
+        }
+        int min = -(ROWS * COLS - moves) / 2;
+        int max = (ROWS * COLS + 1 - moves) / 2;
+        if(weak){
+            min = -1;
+            max = 1;
+        }
+        while(min < max){
+            int med = min + (max - min) / 2;
+            // search closer to 0 first, most positions are decided well before the board is full
+            if(med <= 0 && min / 2 < med){
+                med = min / 2;
+            }
+            else if(med >= 0 && max / 2 > med){
+                med = max / 2;
+            }
+            int r = negamax(cur, mask, moves, med, med + 1);
+            if(r <= med){
+                max = r;
+            }
+            else{
+                min = r;
+            }
+        }
+        // a null window search can return a score past the window, which is still only good for its sign
+        return weak ? Integer.signum(min) : min;
+    }
+
+    /**
+     * Solves every move in a position
+     * @param pos position to solve, nobody can have won yet
+     * @param piece Identifier of the player to move "X" or "O"
+     * @return score of each column from the point of view of the player to move, or Integer.MIN_VALUE if the column
+     * is full
+     */
+    public int[] solveColumns(Connect4Position pos, char piece){
+        int[] scores = new int[COLS];
+        char other = piece == PLAYER1_CHAR ? PLAYER2_CHAR : PLAYER1_CHAR;
+        for(int c = 0; c < COLS; c++){
+            if(!pos.canPlay(c)){
+                scores[c] = Integer.MIN_VALUE;
+                continue;
+            }
+            Connect4Position next = new Connect4Position(pos);
+            int row = next.place(c, piece);
+            if(next.connectsFour(row, c)){
+                scores[c] = (ROWS * COLS + 1 - pos.getMoves()) / 2;
+            }
+            else if(next.isFull()){
+                scores[c] = 0;
+            }
+            else{
+                scores[c] = -solve(next, other);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Picks the column with the best score
+     * @param pos position to solve, nobody can have won yet
+     * @param piece Identifier of the player to move "X" or "O"
+     * @return best column starting at 0, or -1 if the board is full
+     */
+    public int bestMove(Connect4Position pos, char piece){
+        int[] scores = solveColumns(pos, piece);
+        int best = -1;
+        for(int i = 0; i < COLS; i++){
+            int c = Connect4Search.ORDER[i];
+            if(scores[c] != Integer.MIN_VALUE && (best == -1 || scores[c] > scores[best])){
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Number of moves, counting both players, until the game ends with perfect play
+     * @param score score of the position
+     * @param moves number of pieces on the board
+     * @return moves left until the winning piece is played, or until the board is full for a draw
+     */
+    public static int movesToEnd(int score, int moves){
+        int lastPiece = ROWS * COLS / 2 + 1;
+        if(score > 0){
+            return 2 * (lastPiece - score - moves / 2) - 1;
+        }
+        if(score < 0){
+            return 2 * (lastPiece + score - (moves + 1) / 2);
+        }
+        return ROWS * COLS - moves;
+    }
+
+    /**
+     * Describes a score for people to read
+     * @param score score of the position
+     * @param moves number of pieces on the board
+     * @return for example "win in 5", "loss in 8" or "draw"
+     */
+    public static String describe(int score, int moves){
+        if(score == 0){
+            return "draw";
+        }
+        return (score > 0 ? "win in " : "loss in ") + movesToEnd(score, moves);
+    }
+
+    /**
+     * Solves a position from the command line and prints the score of every column, or runs the benchmark
+     * @param args the columns played so far starting at 1, as one string, or --bench followed optionally by the
+     *             number of moves played and the number of positions
+     */
+    public static void main(String[] args){
+        if(args.length < 1){
+            System.out.println("Usage: java core.Connect4Solver moves");
+            System.out.println("   or: java core.Connect4Solver --bench [moves] [positions]");
+            return;
+        }
+        if(args[0].equals("--bench")){
+            bench(args.length > 1 ? Integer.parseInt(args[1]) : 10, args.length > 2 ? Integer.parseInt(args[2]) : 50);
+            return;
+        }
+        Connect4Position pos = new Connect4Position();
+        char piece = PLAYER1_CHAR;
+        for(char ch : args[0].toCharArray()){
+            int col = ch - '1';
+            if(col < 0 || col >= COLS || !pos.canPlay(col)){
+                throw new IllegalArgumentException("illegal move " + ch);
+            }
+            int row = pos.place(col, piece);
+            if(pos.connectsFour(row, col)){
+                throw new IllegalArgumentException("the game is already over");
+            }
+            piece = piece == PLAYER1_CHAR ? PLAYER2_CHAR : PLAYER1_CHAR;
+        }
+        if(pos.isFull()){
+            throw new IllegalArgumentException("the game is already over");
+        }
+        Connect4Solver solver = new Connect4Solver();
+        long start = System.currentTimeMillis();
+        int[] scores = solver.solveColumns(pos, piece);
+        for(int c = 0; c < COLS; c++){
+            if(scores[c] != Integer.MIN_VALUE){
+                System.out.println("column " + (c + 1) + ": " + describe(scores[c], pos.getMoves()));
+            }
+        }
+        System.out.println("solved in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Solves random positions from scratch and prints the average, median and slowest times. The positions come from
+     * random games that nobody has won yet and are the same on every run.
+     * @param moves number of pieces on the board in each position
+     * @param positions number of positions to solve
+     */
+    private static void bench(int moves, int positions){
+        if(moves < 0 || moves >= ROWS * COLS || positions < 1){
+            throw new IllegalArgumentException("need at least one position with an empty cell left");
+        }
+        Random random = new Random(0x4334);
+        Connect4Solver solver = new Connect4Solver();
+        long[] times = new long[positions];
+        long nodes = 0;
+        int n = 0;
+        while(n < positions){
+            Connect4Position pos = new Connect4Position();
+            char piece = PLAYER1_CHAR;
+            boolean over = false;
+            while(pos.getMoves() < moves && !over){
+                int c = random.nextInt(COLS);
+                if(!pos.canPlay(c)){
+                    continue;
+                }
+                over = pos.connectsFour(pos.place(c, piece), c);
+                piece = piece == PLAYER1_CHAR ? PLAYER2_CHAR : PLAYER1_CHAR;
+            }
+            if(over){
+                continue;
+            }
+            // nothing is kept from the positions before, so each time is for a position seen for the first time
+            solver.reset();
+            long start = System.nanoTime();
+            solver.solve(pos, piece);
+            times[n++] = System.nanoTime() - start;
+            nodes += solver.getNodes();
+        }
+        long total = 0;
+        for(long t : times){
+            total += t;
+        }
+        Arrays.sort(times);
+        System.out.printf("%d positions with %d moves played: mean %.1fms, median %.1fms, slowest %.1fms, "
+                        + "%.1f million positions visited a second%n", positions, moves, total / 1e6 / positions,
+                times[positions / 2] / 1e6, times[positions - 1] / 1e6, nodes * 1e3 / total);
+    }
+
+    /**
+     * Null window negamax. The player to move cannot win with their next piece.
+     * @param cur pieces of the player to move
+     * @param mask every occupied cell
+     * @param moves number of pieces on the board
+     * @param alpha lowest score the player to move is already guaranteed
+     * @param beta highest score the opponent will allow
+     * @return the exact score if it is between alpha and beta, otherwise a bound on the side it fell
+     */
+    private int negamax(long cur, long mask, int moves, int alpha, int beta){
+        nodes++;
+        long next = nonLosingMoves(cur, mask);
+        if(next == 0){
+            // every move lets the opponent win
+            return -(ROWS * COLS - moves) / 2;
+        }
+        if(moves >= ROWS * COLS - 2){
+            return 0;
+        }
+        int min = -(ROWS * COLS - 2 - moves) / 2;
+        if(alpha < min){
+            alpha = min;
+            if(alpha >= beta){
+                return alpha;
+            }
+        }
+        int max = (ROWS * COLS - 1 - moves) / 2;
+        long key = tableKey(Connect4OpeningBook.key(cur, mask));
+        long entry = table.probe(key);
+        int tableMove = -1;
+        if(entry != Connect4TranspositionTable.MISS){
+            int bound = Connect4TranspositionTable.scoreOf(entry);
+            if(Connect4TranspositionTable.flagOf(entry) == Connect4TranspositionTable.LOWER){
+                if(alpha < bound){
+                    alpha = bound;
+                    if(alpha >= beta){
+                        return alpha;
+                    }
+                }
+                tableMove = Connect4TranspositionTable.moveOf(entry);
+            }
+            else if(bound < max){
+                max = bound;
+            }
+        }
+        if(beta > max){
+            beta = max;
+            if(alpha >= beta){
+                return beta;
+            }
+        }
+        int base = moves * COLS;
+        int n = 0;
+        for(int i = 0; i < COLS; i++){
+            int c = Connect4Search.ORDER[i];
+            long move = next & Connect4Position.columnMask(c);
+            if(move == 0){
+                continue;
+            }
+            // the move that refuted this position before goes first, then the moves that make the most threats,
+            // keeping the center first order for ties
+            int score = c == tableMove ? Integer.MAX_VALUE
+                    : Long.bitCount(Connect4Position.winningCells(cur | move, mask | move));
+            int j = n++;
+            while(j > 0 && moveScores[base + j - 1] < score){
+                moveList[base + j] = moveList[base + j - 1];
+                moveScores[base + j] = moveScores[base + j - 1];
+                j--;
+            }
+            moveList[base + j] = c;
+            moveScores[base + j] = score;
+        }
+        for(int i = 0; i < n; i++){
+            long move = next & Connect4Position.columnMask(moveList[base + i]);
+            int score = -negamax(cur ^ mask, mask | move, moves + 1, -beta, -alpha);
+            if(score >= beta){
+                // the score is at least this much, and the move is worth trying first next time
+                table.store(key, score, ROWS * COLS - moves, Connect4TranspositionTable.LOWER, moveList[base + i]);
+                return score;
+            }
+            if(score > alpha){
+                alpha = score;
+            }
+        }
+        // nothing better than alpha was found, so alpha is an upper bound on the score
+        table.store(key, alpha, ROWS * COLS - moves, Connect4TranspositionTable.UPPER, -1);
+        return alpha;
+    }
+
+    /**
+     * Key of a position in the transposition table. The position key is unique but its low bits, which pick the
+     * slot, only describe the first columns, so it is mixed with steps that can each be undone, which spreads it over
+     * the table while keeping it unique.
+     * @param k key of the position, see {@link Connect4OpeningBook#key(long, long)}
+     * @return key in the table
+     */
+    private static long tableKey(long k){
+        k = (k ^ (k >>> 33)) * 0xFF51AFD7ED558CCDL;
+        k = (k ^ (k >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return k ^ (k >>> 33);
+    }
+
+    /**
+     * Moves that do not let the opponent win on their next move
+     * @param cur pieces of the player to move
+     * @param mask every occupied cell
+     * @return mask of the cells that can be played safely
+     */
+    private static long nonLosingMoves(long cur, long mask){
+        long possible = (mask + Connect4Position.BOTTOM) & Connect4Position.BOARD;
+        long opponentWins = Connect4Position.winningCells(cur ^ mask, mask);
+        long forced = possible & opponentWins;
+        if(forced != 0){
+            if((forced & (forced - 1)) != 0){
+                // the opponent has two winning moves, only one can be blocked
+                return 0;
+            }
+            possible = forced;
+        }
+        // never play right under a cell the opponent would win in
+        return possible & ~(opponentWins >> 1);
+    }
+
+    private static boolean canWinNext(long cur, long mask){
+        long possible = (mask + Connect4Position.BOTTOM) & Connect4Position.BOARD;
+        return (Connect4Position.winningCells(cur, mask) & possible) != 0;
+    }
+}
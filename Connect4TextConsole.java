@@ -9,10 +9,13 @@ package ui;
 import java.util.Scanner;
 import core.Connect4;
 import core.Connect4ComputerPlayer;
+import core.Connect4Constants;
 
 public class Connect4TextConsole {
 
     private char[][] game = new char[6][7];
+    // the game being played in the console
+    private final Connect4 board = new Connect4();
 
 
     /**
@@ -112,12 +115,12 @@ public class Connect4TextConsole {
         Player playerX = new Player('X');
         Player playerO = new Player('O');
         Scanner move = new Scanner(System.in);
-        Connect4.reset();
+        board.clear();
         Player currPlayer = playerX;
         boolean gameOver;
         do{
             int column = 0;
-            int row;
+            int status;
             int validInput = -1;
             do{
                 System.out.println("Player"+currPlayer.getC()+" – your turn. Choose a column number from 1-7.");
@@ -131,21 +134,20 @@ public class Connect4TextConsole {
                     }
 
                 }while(validInput ==-1);
-                row = Connect4.place(column,currPlayer.getC());
-                if(row == -1){
+                status = board.placeAndCheck(column,currPlayer.getC());
+                if(status == -1){
                     System.out.println("Not a valid move. Please try again");
                 }
-            }while(row == -1);
+            }while(status == -1);
             currPlayer.moveMade();
-            gameOver = Connect4.fourInARow(currPlayer.getC());
-            game[row][column-1] = currPlayer.getC();
+            gameOver = status != Connect4Constants.CONT;
+            game[board.getLastRow()][column-1] = currPlayer.getC();
             printGame();
-            if(gameOver){
-                System.out.println("Player"+currPlayer.getC()+" Has won!");
-            }
-            if(playerO.getP() == 0 && playerX.getP() == 0){
+            if(status == Connect4Constants.DRAW){
                 System.out.println("The game has ended in a draw.");
-                gameOver = true;
+            }
+            else if(gameOver){
+                System.out.println("Player"+currPlayer.getC()+" Has won!");
             }
             if(currPlayer.getC() == 'X'){
                 currPlayer = playerO;
@@ -162,12 +164,15 @@ public class Connect4TextConsole {
     public void playVcomputer(){
         Player playerX = new Player('X');
         Connect4ComputerPlayer comp = new Connect4ComputerPlayer();
+        // the computer thinks about its answers while the player types a column
+        comp.setPondering(true);
         Scanner move = new Scanner(System.in);
         boolean gameOver;
         int validInput=-1;
+        board.clear();
         System.out.println("Start game against computer.");
         do{
-            int col=0, row;
+            int col=0, status;
             do {
                 do {
                     System.out.println("It's your turn. Choose a column number from 1-7.");
@@ -178,35 +183,38 @@ public class Connect4TextConsole {
                         System.out.println("Input must be a number, please try again.");
                     }
                 }while(validInput ==-1);
-                row = Connect4.place(col, playerX.getC());
-                if(row ==-1){
+                status = board.placeAndCheck(col, playerX.getC());
+                if(status ==-1){
                     System.out.println("Not a valid move. Please try again");
                 }
-            }while(row == -1);
+            }while(status == -1);
             playerX.moveMade();
-            game[row][col-1] = playerX.getC();
-            gameOver = Connect4.fourInARow(playerX.getC());
+            game[board.getLastRow()][col-1] = playerX.getC();
             printGame();
-            if(gameOver){
+            if(status == Connect4Constants.DRAW){
+                System.out.println("The game has ended in a draw.");
+                break;
+            }
+            if(status != Connect4Constants.CONT){
                 System.out.println("Player"+playerX.getC()+" Has won!");
                 break;
             }
             //playerX is done with their turn, time for computer to make a move
             System.out.println("The computer is playing...");
-            comp.makeMove(game);
+            comp.makeMove(board);
             comp.moveMade();
             game[comp.getRow()][comp.getCol()] = comp.getC();
             printGame();
-            gameOver = Connect4.fourInARow(comp.getC());
-            if(gameOver){
-                System.out.println("The computer Has won!");
-            }
-            if(comp.getP() == 0 && playerX.getP() == 0 && !gameOver){
+            gameOver = comp.getStatus() != Connect4Constants.CONT;
+            if(comp.getStatus() == Connect4Constants.DRAW){
                 System.out.println("The game has ended in a draw.");
-                gameOver = true;
+            }
+            else if(gameOver){
+                System.out.println("The computer Has won!");
             }
 
         }while(!gameOver);
+        comp.setPondering(false);
     }
 
     /**
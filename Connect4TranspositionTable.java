@@ -0,0 +1,204 @@
+package core;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Fixed size transposition table for {@link Connect4Search}. Results of positions that have already been searched are
+ * kept so that the same position reached through a different order of moves does not have to be searched again.
+ * Entries are packed into a single long array, two longs per entry, so no objects are created per entry. Positions
+ * are keyed by a Zobrist hash that the search updates one move at a time.
+ * @author justin Kolich
+ * @version 1.0
+ */
+public class Connect4TranspositionTable implements Connect4Constants {
+
+    /** Value returned by {@link #probe(long)} when the position is not in the table */
+    public static final long MISS = -1;
+    /** The stored score is the exact score of the position */
+    public static final int EXACT = 0;
+    /** The stored score is a lower bound, the search failed high */
+    public static final int LOWER = 1;
+    /** The stored score is an upper bound, the search failed low */
+    public static final int UPPER = 2;
+
+    /** Size used when no size is given, in megabytes */
+    public static final int DEFAULT_MB = 16;
+
+    // Zobrist keys for a piece of each player on each bit, and for the player to move
+    private static final long[][] PIECE_KEYS = new long[2][64];
+    private static final long SIDE_KEY;
+    static{
+        // fixed seed so the same position always hashes the same way
+        SplittableRandom rand = new SplittableRandom(0x436f6e6e65637434L);
+        for(int p = 0; p < 2; p++){
+            for(int i = 0; i < 64; i++){
+                PIECE_KEYS[p][i] = rand.nextLong();
+            }
+        }
+        SIDE_KEY = rand.nextLong();
+    }
+
+    // each entry is the key xor'd with the data followed by the data itself
+    private final long[] table;
+    private final int indexMask;
+    private int generation;
+
+    /**
+     * Creates a table that uses about the given amount of memory, rounded down to a power of two number of entries
+     * @param megabytes size of the table in megabytes, at least 1
+     */
+    public Connect4TranspositionTable(int megabytes){
+        if(megabytes < 1){
+            throw new IllegalArgumentException("table size must be at least 1 MB");
+        }
+        long entries = Long.highestOneBit(megabytes * 1024L * 1024L / 16);
+        // keep the backing array within the largest size java allows
+        entries = Math.min(entries, 1L << 29);
+        table = new long[(int) (entries * 2)];
+        indexMask = (int) entries - 1;
+    }
+
+    /**
+     *
+     * @return number of positions the table can hold
+     */
+    public int getCapacity(){
+        return indexMask + 1;
+    }
+
+    /**
+     * Empties the table, for when a new game is started
+     */
+    public void clear(){
+        Arrays.fill(table, 0);
+        generation = 0;
+    }
+
+    /**
+     * Marks the start of a new search. Entries from older searches are replaced before entries from this one no matter
+     * how deep they were searched.
+     */
+    public void newSearch(){
+        generation = (generation + 1) & 0xFF;
+    }
+
+    /**
+     * Looks up a position
+     * @param key Zobrist key of the position
+     * @return packed entry data, or {@link #MISS} if the position is not stored
+     */
+    public long probe(long key){
+        int i = ((int) key & indexMask) << 1;
+        long data = table[i + 1];
+        if((table[i] ^ data) != key || data == 0){
+            return MISS;
+        }
+        return data;
+    }
+
+    /**
+     * Stores the result of searching a position. An entry from the current search is only replaced by a result that
+     * was searched at least as deep.
+     * @param key Zobrist key of the position
+     * @param score score of the position
+     * @param depth how many moves deep the position was searched
+     * @param flag EXACT, LOWER or UPPER
+     * @param move best column found starting at 0, or -1 if there is none
+     */
+    public void store(long key, int score, int depth, int flag, int move){
+        int i = ((int) key & indexMask) << 1;
+        long old = table[i + 1];
+        if(old != 0 && generationOf(old) == generation && depthOf(old) > depth){
+            return;
+        }
+        long data = (score & 0xFFFFFFFFL)
+                | ((long) (depth & 0xFF) << 32)
+                | ((long) flag << 40)
+                | ((long) (move & 0x7) << 42)
+                | ((long) generation << 45)
+                | (1L << 53);
+        table[i] = key ^ data;
+        table[i + 1] = data;
+    }
+
+    /**
+     *
+     * @param data packed entry
+     * @return stored score
+     */
+    public static int scoreOf(long data){
+        return (int) data;
+    }
+
+    /**
+     *
+     * @param data packed entry
+     * @return how many moves deep the position was searched
+     */
+    public static int depthOf(long data){
+        return (int) (data >>> 32) & 0xFF;
+    }
+
+    /**
+     *
+     * @param data packed entry
+     * @return EXACT, LOWER or UPPER
+     */
+    public static int flagOf(long data){
+        return (int) (data >>> 40) & 0x3;
+    }
+
+    /**
+     *
+     * @param data packed entry
+     * @return best column starting at 0, or -1 if none was stored
+     */
+    public static int moveOf(long data){
+        int m = (int) (data >>> 42) & 0x7;
+        return m == 7 ? -1 : m;
+    }
+
+    private static int generationOf(long data){
+        return (int) (data >>> 45) & 0xFF;
+    }
+
+    /**
+     * Zobrist key change for a piece
+     * @param side 0 for player 1, 1 for player 2
+     * @param bit bit index of the cell
+     * @return key to xor into the hash
+     */
+    static long pieceKey(int side, int bit){
+        return PIECE_KEYS[side][bit];
+    }
+
+    /**
+     *
+     * @return key to xor into the hash whenever the player to move changes
+     */
+    static long sideKey(){
+        return SIDE_KEY;
+    }
+
+    /**
+     * Computes the Zobrist key of a position from scratch
+     * @param pos position to hash
+     * @param piece Identifier of the player to move "X" or "O"
+     * @return key of the position
+     */
+    public static long hash(Connect4Position pos, char piece){
+        long key = piece == PLAYER1_CHAR ? 0 : SIDE_KEY;
+        long b = pos.getMask(PLAYER1_CHAR);
+        while(b != 0){
+            key ^= PIECE_KEYS[0][Long.numberOfTrailingZeros(b)];
+            b &= b - 1;
+        }
+        b = pos.getMask(PLAYER2_CHAR);
+        while(b != 0){
+            key ^= PIECE_KEYS[1][Long.numberOfTrailingZeros(b)];
+            b &= b - 1;
+        }
+        return key;
+    }
+}